@@ -0,0 +1,42 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Run all the benchmarks with fixed settings, so that results of different commits can be compared.<br>
+ * Results are written as JSON to <code>target/jmh-result.json</code> (or <code>-Dbenchmark.result</code>), with
+ * throughput and allocation rate (GC profiler) of each benchmark.
+ * <p>
+ * Usage : <code>mvn test -P jmh [-Dbenchmark.include=UtilsBenchmark]</code>
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(System.getProperty("benchmark.include", BenchmarkRunner.class.getPackage().getName() + ".*Benchmark"))
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .forks(1)
+                .shouldFailOnError(true)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("benchmark.result", "target/jmh-result.json"))
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,109 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.util.concurrent.ExecutorService;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Concurrent publishes on the shared connection, from 1 to 40 executors, with and without channel striping : the
+ * channel checkout of {@link CachingConnectionFactory} and the per-channel publish lock are real, the broker is
+ * stubbed.
+ */
+@State(Scope.Benchmark)
+public class ChannelCheckoutBenchmark {
+
+    // cost of writing the frames of a message, under the channel lock
+    private static final long PUBLISH_TOKENS = 200;
+
+    @Param({"1", "8"})
+    public int stripes;
+
+    private CachingConnectionFactory[] factories;
+    private RabbitTemplate[] rabbitTemplates;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        RabbitMqBuilder.RabbitConfig rabbitConfig = new RabbitMqBuilder.RabbitConfig("benchmark", "localhost", 5672,
+                "guest", "guest", false, "/");
+        rabbitConfig.setChannelStripes(stripes);
+
+        factories = new CachingConnectionFactory[stripes];
+        rabbitTemplates = new RabbitTemplate[stripes];
+        for (int i = 0; i < stripes; i++) {
+            factories[i] = new CachingConnectionFactory(stubConnectionFactory());
+            factories[i].setChannelCacheSize(rabbitConfig.getChannelCacheSize());
+            factories[i].setCacheMode(rabbitConfig.getCacheMode());
+            rabbitTemplates[i] = new RabbitTemplate(factories[i]);
+        }
+
+        message = new Message("benchmark".getBytes(), new MessageProperties());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (CachingConnectionFactory factory : factories) {
+            factory.destroy();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publish_01_executor() {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void publish_08_executors() {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(40)
+    public void publish_40_executors() {
+        publish();
+    }
+
+    private void publish() {
+        rabbitTemplates[RabbitMqConnections.stripe(stripes)].send("exchange", "routing.key", message);
+    }
+
+    private static ConnectionFactory stubConnectionFactory() throws Exception {
+        Connection connection = Mockito.mock(Connection.class, Mockito.withSettings().stubOnly());
+        Mockito.doReturn(true).when(connection).isOpen();
+        Mockito.doAnswer(invocation -> stubChannel()).when(connection).createChannel();
+
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class, Mockito.withSettings().stubOnly());
+        Mockito.doReturn(connection).when(connectionFactory)
+                .newConnection(Mockito.nullable(ExecutorService.class), Mockito.nullable(String.class));
+        return connectionFactory;
+    }
+
+    private static Channel stubChannel() throws Exception {
+        Channel channel = Mockito.mock(Channel.class, Mockito.withSettings().stubOnly());
+        Mockito.doReturn(true).when(channel).isOpen();
+        Mockito.doAnswer(invocation -> {
+            // as the client does, a channel publishes one message at a time
+            synchronized (channel) {
+                Blackhole.consumeCPU(PUBLISH_TOKENS);
+            }
+            return null;
+        }).when(channel).basicPublish(Mockito.any(), Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+        return channel;
+    }
+}
@@ -0,0 +1,97 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Publish path of the build step, from the data to the sent message, against an in-memory template.
+ */
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    @Param({"raw", "json"})
+    public String format;
+
+    @Param({"true", "false"})
+    public boolean conversion;
+
+    private RabbitMqBuilder rabbitMqBuilder;
+    private InMemoryRabbitTemplate rabbitTemplate;
+    private Map<String, String> buildParameters;
+    private EnvVars env;
+    private PrintStream console;
+
+    @Setup
+    public void setUp() {
+        buildParameters = new HashMap<>();
+        env = new EnvVars();
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            buildParameters.put("PARAM_" + i, "value of parameter number " + i);
+            env.put("ENV_" + i, "value of environment variable number " + i);
+
+            data.append("PARAM_").append(i).append("=${PARAM_").append(i).append("}\n");
+            data.append("ENV_").append(i).append("=${ENV_").append(i).append("}\n");
+        }
+
+        rabbitMqBuilder = new RabbitMqBuilder("benchmark", "exchange", data.toString());
+        rabbitMqBuilder.setRoutingKey("routing.key");
+        rabbitMqBuilder.setToJson("json".equals(format));
+        rabbitMqBuilder.setPayloadType(PayloadType.of(conversion));
+
+        rabbitTemplate = new InMemoryRabbitTemplate();
+        console = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // discarded
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // discarded
+            }
+        });
+    }
+
+    @Benchmark
+    public Message publish() throws IOException, ExecutionException, InterruptedException {
+        rabbitMqBuilder.publish(rabbitTemplate, null, null, null, buildParameters, env, console);
+        return rabbitTemplate.lastMessage;
+    }
+
+    /**
+     * Keep the last sent message instead of sending it to a broker.
+     */
+    private static class InMemoryRabbitTemplate extends RabbitTemplate {
+
+        private Message lastMessage;
+
+        @Override
+        public void send(String exchange, String routingKey, Message message) {
+            lastMessage = message;
+        }
+
+        @Override
+        public void send(String exchange, String routingKey, Message message, CorrelationData correlationData) {
+            lastMessage = message;
+        }
+
+        @Override
+        public <T> T invoke(OperationsCallback<T> action) {
+            return action.doInRabbit(this);
+        }
+    }
+}
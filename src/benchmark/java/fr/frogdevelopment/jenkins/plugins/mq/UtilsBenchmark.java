@@ -0,0 +1,60 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Message rendering, for small (5), medium (50) and large (500) numbers of parameters.
+ */
+@State(Scope.Benchmark)
+public class UtilsBenchmark {
+
+    @Param({"5", "50", "500"})
+    public int size;
+
+    private Map<String, String> buildParameters;
+    private String rawTemplate;
+    private String keyValueTemplate;
+
+    @Setup
+    public void setUp() {
+        buildParameters = new HashMap<>();
+        StringBuilder raw = new StringBuilder("{\n");
+        StringBuilder keyValues = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            buildParameters.put("PARAM_" + i, "value of parameter number " + i);
+
+            raw.append("\t\"field_").append(i).append("\": \"${PARAM_").append(i).append("}\",\n");
+            keyValues.append("FIELD_NUMBER_").append(i).append("=${PARAM_").append(i).append("}\n");
+        }
+        raw.append("\t\"unknown\": \"$UNKNOWN\"\n}");
+
+        rawTemplate = raw.toString();
+        keyValueTemplate = keyValues.toString();
+    }
+
+    @Benchmark
+    public String getRawMessage() {
+        return Utils.getRawMessage(buildParameters, rawTemplate);
+    }
+
+    @Benchmark
+    public String getJsonMessage() {
+        return Utils.getJsonMessage(buildParameters, keyValueTemplate);
+    }
+
+    @Benchmark
+    public byte[] getJsonPayload() {
+        return Utils.getJsonPayload(buildParameters, keyValueTemplate, true);
+    }
+
+    @Benchmark
+    public String toJava() {
+        return Utils.toJava("FIELD_NUMBER_" + size);
+    }
+}
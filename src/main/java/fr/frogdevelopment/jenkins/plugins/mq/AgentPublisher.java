@@ -0,0 +1,58 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import jenkins.security.MasterToSlaveCallable;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Build and publish the messages of a {@link RabbitMqBuilder} on the agent running the build : the workspace file is
+ * read locally, and the messages are sent through connections opened by the agent, kept open between builds.
+ */
+final class AgentPublisher extends MasterToSlaveCallable<PublishResult, Exception> {
+
+    private static final long serialVersionUID = 1L;
+
+    // one registry per agent JVM
+    private static final RabbitMqConnections CONNECTIONS = new RabbitMqConnections();
+
+    private final RabbitMqBuilder builder;
+    private final RabbitConfig rabbitConfig;
+    private final String workspace;
+    private final HashMap<String, String> buildParameters;
+    private final EnvVars env;
+    private final TaskListener listener;
+
+    /**
+     * @param rabbitConfig {@link RabbitConfig#forAgent() agent copy} of the config
+     * @param workspace    remote path of the workspace
+     */
+    AgentPublisher(RabbitMqBuilder builder, RabbitConfig rabbitConfig, String workspace,
+                   Map<String, String> buildParameters, EnvVars env, TaskListener listener) {
+        this.builder = builder;
+        this.rabbitConfig = rabbitConfig;
+        this.workspace = workspace;
+        this.buildParameters = new HashMap<>(buildParameters);
+        this.env = env;
+        this.listener = listener;
+    }
+
+    @Override
+    public PublishResult call() throws Exception {
+        PrintStream console = listener.getLogger();
+        try {
+            RabbitTemplate rabbitTemplate = CONNECTIONS.getRabbitTemplate(rabbitConfig);
+            // the dedup cache is on the controller, which reserved the idempotency key before
+            return builder.publish(rabbitTemplate, CONNECTIONS.getPublishGate(rabbitConfig), null,
+                    new FilePath(new File(workspace)), buildParameters, env, console);
+        } finally {
+            console.flush();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * Streaming writer of a binary structured format, encoding maps, arrays and values straight to a reusable byte
+ * buffer, as {@link JsonPayloadWriter} does for JSON. Containers are written with their size first, as both formats
+ * prefer definite lengths.
+ * <p>
+ * Writers are reused per thread and per format : a writer is only valid until the next call to
+ * {@link #get(PayloadFormat)} for the same format on the same thread.
+ */
+abstract class BinaryPayloadWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // bigger buffers are not kept between messages
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<Map<PayloadFormat, BinaryPayloadWriter>> WRITERS =
+            ThreadLocal.withInitial(() -> new EnumMap<>(PayloadFormat.class));
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param format binary format, not {@link PayloadFormat#JSON}
+     * @return the writer of the current thread for this format, emptied
+     */
+    static BinaryPayloadWriter get(PayloadFormat format) {
+        BinaryPayloadWriter writer = WRITERS.get().computeIfAbsent(format, BinaryPayloadWriter::create);
+        writer.reset();
+        return writer;
+    }
+
+    private static BinaryPayloadWriter create(PayloadFormat format) {
+        switch (format) {
+            case CBOR:
+                return new CborPayloadWriter();
+            case MESSAGE_PACK:
+                return new MessagePackPayloadWriter();
+            default:
+                throw new IllegalArgumentException("Not a binary format : " + format);
+        }
+    }
+
+    private void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+    }
+
+    abstract BinaryPayloadWriter beginMap(int entries);
+
+    abstract BinaryPayloadWriter beginArray(int elements);
+
+    abstract BinaryPayloadWriter value(String value);
+
+    abstract BinaryPayloadWriter value(long value);
+
+    abstract BinaryPayloadWriter value(double value);
+
+    abstract BinaryPayloadWriter value(boolean value);
+
+    abstract BinaryPayloadWriter nullValue();
+
+    /**
+     * Write a parsed JSON value, eg: a nested object of the <i>key=value</i> data.
+     */
+    BinaryPayloadWriter json(Object value) {
+        if (value == null || value instanceof JSONNull) {
+            nullValue();
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            beginMap(object.size());
+            for (Iterator<?> keys = object.keys(); keys.hasNext(); ) {
+                Object key = keys.next();
+                value(String.valueOf(key));
+                json(object.get(key));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray(array.size());
+            for (Object element : array) {
+                json(element);
+            }
+        } else if (value instanceof Boolean) {
+            value((boolean) (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+            value(((BigInteger) value).longValue());
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            value(((Number) value).doubleValue());
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    final void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    final void writeShort(int value) {
+        ensureCapacity(2);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    final void writeInt(long value) {
+        ensureCapacity(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    final void writeLong(long value) {
+        writeInt(value >>> 32);
+        writeInt(value);
+    }
+
+    /**
+     * @return the length of the string encoded in UTF-8, an unpaired surrogate counting as a '?'
+     */
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for the 2 chars
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the string in UTF-8, same encoding than {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    final void writeUtf8(String value, int utf8Length) {
+        ensureCapacity(utf8Length);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
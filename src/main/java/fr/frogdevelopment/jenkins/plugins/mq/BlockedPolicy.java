@@ -0,0 +1,15 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * What a publish does while the broker blocks the connection, see {@link PublishGate}.
+ */
+public enum BlockedPolicy {
+    /**
+     * Wait for the broker to unblock the connection, up to the timeout of the config.
+     */
+    WAIT,
+    /**
+     * Fail immediately.
+     */
+    FAIL
+}
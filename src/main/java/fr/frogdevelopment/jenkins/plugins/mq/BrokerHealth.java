@@ -0,0 +1,119 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of the last probe of a Rabbit-MQ config by the {@link BrokerHealthProbe} : status, and connect latency
+ * (TCP connection and AMQP handshake) of each node.
+ */
+final class BrokerHealth {
+
+    enum Status {
+        /**
+         * All the nodes accepted a connection.
+         */
+        UP,
+        /**
+         * Some nodes of the cluster did not accept a connection, publishes go to the others.
+         */
+        DEGRADED,
+        /**
+         * No node accepted a connection.
+         */
+        DOWN
+    }
+
+    private final Status status;
+    private final List<NodeHealth> nodes;
+    private final long checkedAt;
+
+    BrokerHealth(List<NodeHealth> nodes, long checkedAt) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.checkedAt = checkedAt;
+
+        long failures = nodes.stream().filter(node -> node.error != null).count();
+        if (failures == 0) {
+            status = Status.UP;
+        } else if (failures < nodes.size()) {
+            status = Status.DEGRADED;
+        } else {
+            status = Status.DOWN;
+        }
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    boolean isDown() {
+        return status == Status.DOWN;
+    }
+
+    List<NodeHealth> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return time of the probe, in ms since epoch
+     */
+    long getCheckedAt() {
+        return checkedAt;
+    }
+
+    /**
+     * @return the status, with the latency or error of each node, eg: <code>UP, localhost:5672 : 12 ms</code>
+     */
+    String describe() {
+        StringBuilder description = new StringBuilder(status.name());
+        for (NodeHealth node : nodes) {
+            description.append(", ").append(node);
+        }
+        return description.toString();
+    }
+
+    static final class NodeHealth {
+
+        private final String address;
+        private final long latencyNanos;
+        private final String error;
+
+        private NodeHealth(String address, long latencyNanos, String error) {
+            this.address = address;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+        }
+
+        static NodeHealth up(String address, long latencyNanos) {
+            return new NodeHealth(address, latencyNanos, null);
+        }
+
+        static NodeHealth down(String address, String error) {
+            return new NodeHealth(address, 0, error != null ? error : "connection failed");
+        }
+
+        String getAddress() {
+            return address;
+        }
+
+        boolean isUp() {
+            return error == null;
+        }
+
+        long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return error == null
+                    ? address + " : " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + " ms"
+                    : address + " : " + error;
+        }
+    }
+}
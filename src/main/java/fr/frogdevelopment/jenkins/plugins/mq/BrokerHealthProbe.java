@@ -0,0 +1,317 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import fr.frogdevelopment.jenkins.plugins.mq.BrokerHealth.NodeHealth;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background probe of the brokers : every {@link #PERIOD_MS}, a connection is opened to each node of each Rabbit-MQ
+ * config, the configs in parallel on a few threads and with strict timeouts, and the result is cached.<br>
+ * The builds read the cached status to fail fast on a broker known to be down, instead of waiting for the connect
+ * timeout of the publish : a down status older than {@link #REPROBE_AFTER_MS} is probed again first, the builds
+ * sharing a single probe per config. The nodes of a cluster known to be down are ejected from the
+ * {@link NodeSelector} of the pooled connections.
+ */
+@Extension
+public class BrokerHealthProbe extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BrokerHealthProbe.class);
+
+    static final long PERIOD_MS = TimeUnit.SECONDS.toMillis(30);
+    // TCP connection, then AMQP handshake
+    static final int CONNECT_TIMEOUT_MS = 5_000;
+    static final int HANDSHAKE_TIMEOUT_MS = 5_000;
+    // a status older than that is ignored, eg: when the probe is late
+    private static final long MAX_AGE_MS = 3 * PERIOD_MS;
+    // a down status more recent than that fails the builds at once
+    static final long REPROBE_AFTER_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final int PROBE_THREADS = 4;
+
+    private static final String CONNECTION_NAME = "jenkins-health-probe";
+
+    private static final Map<String, Probed> HEALTH = new ConcurrentHashMap<>();
+    // probe in progress of each config, shared by the periodic probe and the builds
+    private static final Map<String, CompletableFuture<BrokerHealth>> PROBING = new ConcurrentHashMap<>();
+
+    private static volatile ThreadPoolExecutor executor;
+
+    public BrokerHealthProbe() {
+        super("Rabbit-MQ brokers health probe");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return PERIOD_MS;
+    }
+
+    @Override
+    public long getInitialDelay() {
+        return TimeUnit.SECONDS.toMillis(15);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        RabbitMqDescriptor descriptor = Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+        if (descriptor == null || descriptor.getConfigs() == null) {
+            HEALTH.clear();
+            return;
+        }
+
+        List<RabbitConfig> rabbitConfigs = descriptor.getConfigs().getRabbitConfigs();
+        Map<RabbitConfig, CompletableFuture<BrokerHealth>> probes = new LinkedHashMap<>();
+        for (RabbitConfig rabbitConfig : rabbitConfigs) {
+            probes.put(rabbitConfig, probeAsync(rabbitConfig, descriptor.getConnections()));
+        }
+
+        // the nodes of a config are probed one after the other
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PERIOD_MS);
+        for (Map.Entry<RabbitConfig, CompletableFuture<BrokerHealth>> entry : probes.entrySet()) {
+            RabbitConfig rabbitConfig = entry.getKey();
+            try {
+                BrokerHealth health = entry.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                listener.getLogger().println(rabbitConfig.getName() + " : " + health.describe());
+            } catch (ExecutionException | TimeoutException e) {
+                // a connect can not be interrupted, the probe updates the status when it ends
+                LOGGER.warn("Unable to probe Rabbit-MQ config {}", rabbitConfig.getName(), e);
+            }
+        }
+
+        HEALTH.keySet().retainAll(probes.keySet().stream().map(RabbitConfig::getName).collect(Collectors.toSet()));
+    }
+
+    private static ThreadPoolExecutor executor() {
+        if (executor == null) {
+            synchronized (BrokerHealthProbe.class) {
+                if (executor == null) {
+                    // threads are released when idle
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, 60,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                            new NamingThreadFactory(new DaemonThreadFactory(), "RabbitMqHealthProbe"));
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Terminator
+    public static void shutdown() {
+        ThreadPoolExecutor probing = executor;
+        if (probing != null) {
+            probing.shutdownNow();
+        }
+    }
+
+    /**
+     * Probe the config in background, and update its status with the result. A config is probed once at a time :
+     * while it is probed, the same probe is returned.
+     */
+    static CompletableFuture<BrokerHealth> probeAsync(RabbitConfig rabbitConfig, RabbitMqConnections connections) {
+        String name = rabbitConfig.getName();
+        CompletableFuture<BrokerHealth> created = new CompletableFuture<>();
+        CompletableFuture<BrokerHealth> probing = PROBING.putIfAbsent(name, created);
+        if (probing != null) {
+            return probing;
+        }
+
+        try {
+            executor().execute(() -> {
+                try {
+                    BrokerHealth health = probe(rabbitConfig);
+                    update(rabbitConfig, health, connections);
+                    created.complete(health);
+                } catch (RuntimeException | Error e) {
+                    created.completeExceptionally(e);
+                } finally {
+                    PROBING.remove(name, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            PROBING.remove(name, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * @return how long a probe of the config can take, its nodes being probed one after the other
+     */
+    private static long probeTimeoutMs(RabbitConfig rabbitConfig) {
+        return (long) nodesOf(rabbitConfig).size() * (CONNECT_TIMEOUT_MS + HANDSHAKE_TIMEOUT_MS);
+    }
+
+    /**
+     * Connect to each node of the config.
+     */
+    static BrokerHealth probe(RabbitConfig rabbitConfig) {
+        List<NodeHealth> nodes = new ArrayList<>();
+        for (Address node : nodesOf(rabbitConfig)) {
+            nodes.add(probe(rabbitConfig, node));
+        }
+        return new BrokerHealth(nodes, System.currentTimeMillis());
+    }
+
+    private static List<Address> nodesOf(RabbitConfig rabbitConfig) {
+        if (StringUtils.isNotBlank(rabbitConfig.getAddresses())) {
+            return RabbitMqFactory.parseAddresses(rabbitConfig.getAddresses());
+        }
+        return Collections.singletonList(new Address(rabbitConfig.getHost(), rabbitConfig.getPort()));
+    }
+
+    private static NodeHealth probe(RabbitConfig rabbitConfig, Address node) {
+        int port = port(node, rabbitConfig.getIsSecure());
+        String address = node.getHost() + ":" + port;
+        try {
+            ConnectionFactory connectionFactory = strict(RabbitMqFactory.createConnectionFactory(
+                    rabbitConfig.getUsername(),
+                    rabbitConfig.getDecodedPassword(),
+                    node.getHost(),
+                    port,
+                    rabbitConfig.getIsSecure(),
+                    rabbitConfig.getVirtualHost()
+            ));
+
+            long start = System.nanoTime();
+            try (Connection connection = connectionFactory.newConnection(CONNECTION_NAME)) {
+                long latency = System.nanoTime() - start;
+                return connection != null && connection.isOpen()
+                        ? NodeHealth.up(address, latency)
+                        : NodeHealth.down(address, null);
+            }
+        } catch (IOException | TimeoutException | GeneralSecurityException | RuntimeException e) {
+            return NodeHealth.down(address, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    static int port(Address node, boolean isSecure) {
+        if (node.getPort() > 0) {
+            return node.getPort();
+        }
+        return isSecure ? ConnectionFactory.DEFAULT_AMQP_OVER_SSL_PORT : ConnectionFactory.DEFAULT_AMQP_PORT;
+    }
+
+    /**
+     * @return the factory, with the strict timeouts of the probe
+     */
+    static ConnectionFactory strict(ConnectionFactory connectionFactory) {
+        connectionFactory.setConnectionTimeout(CONNECT_TIMEOUT_MS);
+        connectionFactory.setHandshakeTimeout(HANDSHAKE_TIMEOUT_MS);
+        return connectionFactory;
+    }
+
+    static void update(RabbitConfig rabbitConfig, BrokerHealth health, RabbitMqConnections connections) {
+        Probed previous = HEALTH.put(rabbitConfig.getName(), new Probed(rabbitConfig, health));
+        if (previous == null || previous.health.getStatus() != health.getStatus()) {
+            LOGGER.info("Rabbit-MQ config {} is {}", rabbitConfig.getName(), health.describe());
+        }
+
+        // nodes of the cluster known to be down are tried last by the next connections
+        Collection<NodeSelector> selectors = connections.getNodeSelectors(rabbitConfig.getName());
+        if (selectors.isEmpty()) {
+            return;
+        }
+        List<Address> addresses = nodesOf(rabbitConfig);
+        for (int i = 0; i < addresses.size(); i++) {
+            NodeHealth node = health.getNodes().get(i);
+            for (NodeSelector selector : selectors) {
+                if (node.isUp()) {
+                    selector.succeeded(addresses.get(i), node.getLatencyNanos());
+                } else {
+                    selector.failed(addresses.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the last status of the config, or <code>null</code> if not probed recently, or probed with other
+     * settings
+     */
+    static BrokerHealth getHealth(RabbitConfig rabbitConfig) {
+        Probed probed = HEALTH.get(rabbitConfig.getName());
+        if (probed == null || !probed.rabbitConfig.equals(rabbitConfig)
+                || System.currentTimeMillis() - probed.health.getCheckedAt() > MAX_AGE_MS) {
+            return null;
+        }
+        return probed.health;
+    }
+
+    /**
+     * A cached status may be up to {@link #MAX_AGE_MS} old : a down status older than {@link #REPROBE_AFTER_MS} is
+     * probed again before failing, the builds publishing meanwhile waiting for the same probe.
+     *
+     * @throws IllegalStateException if the last probe found no node of the config accepting connections
+     */
+    static void checkAvailable(RabbitConfig rabbitConfig, RabbitMqConnections connections)
+            throws InterruptedException {
+        BrokerHealth health = getHealth(rabbitConfig);
+        if (health == null || !health.isDown()) {
+            return;
+        }
+
+        if (System.currentTimeMillis() - health.getCheckedAt() > REPROBE_AFTER_MS) {
+            try {
+                probeAsync(rabbitConfig, connections).get(probeTimeoutMs(rabbitConfig), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                // no answer in time, the cached status stands
+                LOGGER.warn("Unable to probe again Rabbit-MQ config {}", rabbitConfig.getName(), e);
+            }
+
+            health = getHealth(rabbitConfig);
+            if (health == null || !health.isDown()) {
+                return;
+            }
+        }
+
+        throw new IllegalStateException("Rabbit-MQ config " + rabbitConfig.getName() + " is down, probed "
+                + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - health.getCheckedAt())
+                + "s ago : " + health.describe());
+    }
+
+    static void clear() {
+        HEALTH.clear();
+    }
+
+    private static final class Probed {
+
+        private final RabbitConfig rabbitConfig;
+        private final BrokerHealth health;
+
+        private Probed(RabbitConfig rabbitConfig, BrokerHealth health) {
+            this.rabbitConfig = rabbitConfig;
+            this.health = health;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * Compact event of the lifecycle of a run, captured on the thread of the run and serialized by the
+ * {@link BuildEventPublisher}.
+ */
+final class BuildEvent {
+
+    static final String STARTED = "started";
+    static final String COMPLETED = "completed";
+    static final String FINALIZED = "finalized";
+
+    private final String type;
+    private final String job;
+    private final int number;
+    private final String url;
+    private final long timestamp;
+    private final String result;
+    private final long duration;
+
+    BuildEvent(String type, String job, int number, String url, long timestamp, String result, long duration) {
+        this.type = type;
+        this.job = job;
+        this.number = number;
+        this.url = url;
+        this.timestamp = timestamp;
+        this.result = result;
+        this.duration = duration;
+    }
+
+    static BuildEvent of(String type, Run<?, ?> run) {
+        Result result = STARTED.equals(type) ? null : run.getResult();
+        long duration = run.getDuration() > 0 || STARTED.equals(type)
+                ? run.getDuration()
+                : System.currentTimeMillis() - run.getStartTimeInMillis();
+        return new BuildEvent(type, run.getParent().getFullName(), run.getNumber(), run.getUrl(),
+                System.currentTimeMillis(), result != null ? result.toString() : null, duration);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return UTF-8 encoded JSON event, the result and duration being only set once the run is completed
+     */
+    byte[] toJson() {
+        JsonPayloadWriter writer = JsonPayloadWriter.get(false).beginObject()
+                .name("event").value(type)
+                .name("job").value(job)
+                .name("number").rawValue(Integer.toString(number))
+                .name("url").value(url)
+                .name("timestamp").rawValue(Long.toString(timestamp));
+        if (!STARTED.equals(type)) {
+            writer.name("result").value(result)
+                    .name("duration").rawValue(Long.toString(duration));
+        }
+        return writer.endObject().toByteArray();
+    }
+}
@@ -0,0 +1,37 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import javax.annotation.Nonnull;
+
+/**
+ * Emit the lifecycle events of the runs to the {@link BuildEventPublisher}, for the jobs enabled in the
+ * {@link RabbitMqEventsConfiguration} : the events are only captured and queued on the thread of the run.
+ */
+@Extension
+public class BuildEventListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        emit(BuildEvent.STARTED, run);
+    }
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+        emit(BuildEvent.COMPLETED, run);
+    }
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        emit(BuildEvent.FINALIZED, run);
+    }
+
+    private static void emit(String type, Run<?, ?> run) {
+        RabbitMqEventsConfiguration configuration = RabbitMqEventsConfiguration.get();
+        if (configuration != null && configuration.isEnabledFor(run.getParent().getFullName())) {
+            BuildEventPublisher.get().offer(BuildEvent.of(type, run));
+        }
+    }
+}
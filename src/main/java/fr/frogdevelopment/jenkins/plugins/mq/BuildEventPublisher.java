@@ -0,0 +1,208 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqMetrics.PublishMetrics;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Publisher shared by all the runs for their {@link BuildEvent build events} : the events are queued without
+ * blocking, and a single background thread sends them by batches, each batch on one channel per Rabbit-MQ config.<br>
+ * Events are best effort : when the queue is full, or the broker unavailable, they are dropped and counted. They pass
+ * the {@link PublishGate} of each config, the events failing its timeout being dropped as well.
+ */
+final class BuildEventPublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildEventPublisher.class);
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 200;
+    // time to wait for more events before sending a batch
+    private static final long LINGER_MS = 50;
+
+    private static final BuildEventPublisher INSTANCE = new BuildEventPublisher(QUEUE_CAPACITY);
+
+    private final BlockingQueue<BuildEvent> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object lifecycleLock = new Object();
+    private volatile Thread thread;
+    private volatile boolean failing;
+
+    BuildEventPublisher(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static BuildEventPublisher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue the event, without ever blocking the caller.
+     *
+     * @return false if the queue is full, the event being dropped
+     */
+    boolean offer(BuildEvent event) {
+        start();
+        if (queue.offer(event)) {
+            return true;
+        }
+        if (dropped.getAndIncrement() % 1000 == 0) {
+            LOGGER.warn("Build events queue full, {} events dropped so far", dropped.get());
+        }
+        return false;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    private void start() {
+        if (thread != null) {
+            return;
+        }
+        synchronized (lifecycleLock) {
+            if (thread == null) {
+                Thread publisher = new NamingThreadFactory(new DaemonThreadFactory(), "RabbitMqBuildEvents")
+                        .newThread(this::run);
+                // set first, so that a thread dying at once is seen by its own cleanup
+                thread = publisher;
+                publisher.start();
+            }
+        }
+    }
+
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        INSTANCE.stop();
+    }
+
+    void stop() throws InterruptedException {
+        Thread publisher;
+        synchronized (lifecycleLock) {
+            publisher = thread;
+            thread = null;
+        }
+        if (publisher != null) {
+            publisher.interrupt();
+            publisher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void run() {
+        List<BuildEvent> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                BuildEvent first = queue.take();
+                batch.add(first);
+                // let the events of concurrent builds join the batch
+                Thread.sleep(LINGER_MS);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                try {
+                    send(batch);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Error while publishing build events", e);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped, events still queued are dropped
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            LOGGER.error("Build events publisher stopped, restarted on next event", e);
+            throw e;
+        } finally {
+            synchronized (lifecycleLock) {
+                // restarted by the next event, unless stopped meanwhile
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    private void send(List<BuildEvent> batch) throws InterruptedException {
+        RabbitMqEventsConfiguration configuration = RabbitMqEventsConfiguration.get();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (configuration == null || jenkins == null) {
+            return;
+        }
+        RabbitMqDescriptor descriptor = jenkins.getDescriptorByType(RabbitMqDescriptor.class);
+        if (descriptor == null) {
+            return;
+        }
+
+        String exchange = configuration.getExchange();
+        String routingKeyPrefix = configuration.getRoutingKeyPrefix();
+
+        // rendered once for all the configs
+        List<Message> messages = new ArrayList<>(batch.size());
+        long bytes = 0;
+        for (BuildEvent event : batch) {
+            byte[] body = event.toJson();
+            MessageProperties properties = new MessageProperties();
+            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            properties.setContentEncoding("UTF-8");
+            properties.setContentLength(body.length);
+            messages.add(new Message(body, properties));
+            bytes += body.length;
+        }
+
+        for (String rabbitName : configuration.getRabbitNameList()) {
+            PublishMetrics metrics = RabbitMqMetrics.publish(rabbitName, exchange);
+            metrics.sending(messages.size());
+            try {
+                RabbitConfig rabbitConfig = descriptor.requireRabbitConfig(rabbitName);
+                RabbitTemplate rabbitTemplate = descriptor.getConnections().getRabbitTemplate(rabbitConfig);
+
+                // rate limits and flow control of the config, as for the builds
+                descriptor.getConnections().getPublishGate(rabbitConfig).acquire(messages.size(), bytes, null);
+
+                long start = System.nanoTime();
+                rabbitTemplate.invoke(operations -> {
+                    for (int i = 0; i < messages.size(); i++) {
+                        operations.send(exchange, routingKeyPrefix + "." + batch.get(i).getType(),
+                                messages.get(i));
+                    }
+                    return null;
+                });
+                metrics.send.recordSince(start);
+                metrics.sent(messages.size(), bytes);
+
+                if (failing) {
+                    LOGGER.info("Build events publishing resumed");
+                    failing = false;
+                }
+            } catch (InterruptedException e) {
+                metrics.failed();
+                dropped.addAndGet(messages.size());
+                throw e;
+            } catch (Exception e) {
+                metrics.failed();
+                dropped.addAndGet(messages.size());
+                // only logged once until the next success
+                if (!failing) {
+                    LOGGER.warn("Error while publishing build events to Rabbit-MQ config " + rabbitName
+                            + ", events are dropped", e);
+                    failing = true;
+                }
+            } finally {
+                metrics.settled(messages.size());
+            }
+        }
+    }
+}
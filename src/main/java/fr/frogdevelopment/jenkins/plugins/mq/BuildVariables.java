@@ -0,0 +1,177 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.Cause;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Variables of a run, resolved on demand : only the names referenced by the message are looked up, first in the build
+ * parameters, then in the user who launched the build (<code>BUILD_USER_ID</code> and <code>BUILD_USER_NAME</code>),
+ * and last in the environment, each source being read only when a name is not found in the previous ones.<br>
+ * The environment is the expensive part, as it calls every environment contributor : it is computed at most once,
+ * and each name is resolved once, for all the publishes of the run.
+ */
+final class BuildVariables {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildVariables.class);
+
+    static final String BUILD_USER_ID = "BUILD_USER_ID";
+    static final String BUILD_USER_NAME = "BUILD_USER_NAME";
+
+    // the variables only hold a weak reference to their run, so that the run can be collected
+    private static final Map<Run<?, ?>, BuildVariables> BY_RUN = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @FunctionalInterface
+    interface EnvironmentSource {
+        EnvVars get(Run<?, ?> run) throws IOException, InterruptedException;
+    }
+
+    private final WeakReference<Run<?, ?>> run;
+    private final Map<String, Optional<String>> resolved = new ConcurrentHashMap<>();
+
+    // released once the environment is read, guarded by this
+    private EnvironmentSource environmentSource;
+
+    // read once, on first lookup
+    private volatile Map<String, String> parameters;
+    private volatile EnvVars environment;
+
+    BuildVariables(Run<?, ?> run, EnvironmentSource environmentSource) {
+        this.run = new WeakReference<>(run);
+        this.environmentSource = environmentSource;
+    }
+
+    /**
+     * @return the variables of the run, shared by all its publishes, the environment being the one of the run
+     */
+    static BuildVariables of(Run<?, ?> run, TaskListener listener) {
+        return BY_RUN.computeIfAbsent(run, r -> new BuildVariables(r, target -> target.getEnvironment(listener)));
+    }
+
+    /**
+     * @return the value of the variable, or <code>null</code> if unknown
+     */
+    String resolve(String name) {
+        return resolved.computeIfAbsent(name, this::lookup).orElse(null);
+    }
+
+    /**
+     * @return the values of the known variables among these names
+     */
+    Map<String, String> resolve(Collection<String> names) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String name : names) {
+            String value = resolve(name);
+            if (value != null) {
+                values.put(name, value);
+            }
+        }
+        LOGGER.debug("Variables resolved : {}", values.keySet());
+        return values;
+    }
+
+    /**
+     * @return all the variables, when the names are not known beforehand, eg: to substitute the variables of a file
+     */
+    Map<String, String> resolveAll() {
+        // environment first, build parameters taking precedence
+        Map<String, String> values = new HashMap<>(getEnvironment());
+        values.putAll(getParameters());
+        return values;
+    }
+
+    /**
+     * @return the whole environment of the run, computed on first call
+     */
+    EnvVars getEnvironment() {
+        EnvVars env = environment;
+        if (env == null) {
+            synchronized (this) {
+                env = environment;
+                if (env == null) {
+                    Run<?, ?> target = run.get();
+                    try {
+                        env = target != null ? environmentSource.get(target) : null;
+                    } catch (IOException e) {
+                        LOGGER.warn("Unable to retrieve the environment of {}", target, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    environment = env = env != null ? env : new EnvVars();
+                    environmentSource = null;
+                }
+            }
+        }
+        return env;
+    }
+
+    private Optional<String> lookup(String name) {
+        String value = getParameters().get(name);
+        if (value == null) {
+            value = getEnvironment().get(name);
+        }
+        return Optional.ofNullable(value);
+    }
+
+    private Map<String, String> getParameters() {
+        Map<String, String> values = parameters;
+        if (values == null) {
+            synchronized (this) {
+                values = parameters;
+                if (values == null) {
+                    parameters = values = readParameters();
+                }
+            }
+        }
+        return values;
+    }
+
+    private Map<String, String> readParameters() {
+        Run<?, ?> run = this.run.get();
+        Map<String, String> values = new HashMap<>();
+        if (run instanceof AbstractBuild) {
+            // parameters, and variables of the build wrappers
+            values.putAll(((AbstractBuild<?, ?>) run).getBuildVariables());
+        } else if (run != null) {
+            ParametersAction parametersAction = run.getAction(ParametersAction.class);
+            if (parametersAction != null) {
+                for (ParameterValue parameter : parametersAction.getParameters()) {
+                    Object value = parameter.getValue();
+                    if (value instanceof Secret) {
+                        values.put(parameter.getName(), ((Secret) value).getPlainText());
+                    } else if (value != null) {
+                        values.put(parameter.getName(), value.toString());
+                    }
+                }
+            }
+        }
+
+        Cause.UserIdCause userIdCause = run != null ? run.getCause(Cause.UserIdCause.class) : null;
+        if (userIdCause != null) {
+            if (userIdCause.getUserId() != null) {
+                values.put(BUILD_USER_ID, userIdCause.getUserId());
+            }
+            if (userIdCause.getUserName() != null) {
+                values.put(BUILD_USER_NAME, userIdCause.getUserName());
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+}
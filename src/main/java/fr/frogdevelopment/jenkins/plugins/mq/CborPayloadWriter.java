@@ -0,0 +1,91 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * CBOR encoding (RFC 8949) : each item starts with its major type and its argument, a length or an integer, in the
+ * shortest form.
+ */
+final class CborPayloadWriter extends BinaryPayloadWriter {
+
+    private static final int UNSIGNED_INTEGER = 0;
+    private static final int NEGATIVE_INTEGER = 1;
+    private static final int TEXT_STRING = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int DOUBLE = 0xFB;
+
+    CborPayloadWriter() {
+    }
+
+    @Override
+    BinaryPayloadWriter beginMap(int entries) {
+        header(MAP, entries);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter beginArray(int elements) {
+        header(ARRAY, elements);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(String value) {
+        int length = utf8Length(value);
+        header(TEXT_STRING, length);
+        writeUtf8(value, length);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(long value) {
+        if (value >= 0) {
+            header(UNSIGNED_INTEGER, value);
+        } else {
+            header(NEGATIVE_INTEGER, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(double value) {
+        writeByte(DOUBLE);
+        writeLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(boolean value) {
+        writeByte(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter nullValue() {
+        writeByte(NULL);
+        return this;
+    }
+
+    // the argument is written on 0, 1, 2, 4 or 8 bytes after the initial byte
+    private void header(int majorType, long argument) {
+        int initial = majorType << 5;
+        if (argument < 24) {
+            writeByte(initial | (int) argument);
+        } else if (argument < 0x100) {
+            writeByte(initial | 24);
+            writeByte((int) argument);
+        } else if (argument < 0x10000) {
+            writeByte(initial | 25);
+            writeShort((int) argument);
+        } else if (argument < 0x100000000L) {
+            writeByte(initial | 26);
+            writeInt(argument);
+        } else {
+            writeByte(initial | 27);
+            writeLong(argument);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ListAddressResolver;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection factory of a cluster : nodes are tried one after the other in the order of the {@link NodeSelector},
+ * the connect latency of each attempt being measured, and failing nodes ejected for a while.
+ */
+class ClusterConnectionFactory extends ConnectionFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterConnectionFactory.class);
+
+    private final NodeSelector nodeSelector;
+
+    ClusterConnectionFactory(List<Address> addresses) {
+        this.nodeSelector = new NodeSelector(addresses);
+    }
+
+    NodeSelector getNodeSelector() {
+        return nodeSelector;
+    }
+
+    @Override
+    public Connection newConnection(ExecutorService executor, String connectionName)
+            throws IOException, TimeoutException {
+        return newConnection(executor, (AddressResolver) null, connectionName);
+    }
+
+    @Override
+    public Connection newConnection(ExecutorService executor, List<Address> addrs, String clientProvidedName)
+            throws IOException, TimeoutException {
+        // the cluster nodes are used in place of the given addresses
+        return newConnection(executor, (AddressResolver) null, clientProvidedName);
+    }
+
+    @Override
+    public Connection newConnection(ExecutorService executor, AddressResolver addressResolver,
+                                    String clientProvidedName) throws IOException, TimeoutException {
+        Exception lastException = null;
+        for (Address address : nodeSelector.ordered()) {
+            long start = System.nanoTime();
+            try {
+                Connection connection = super.newConnection(executor,
+                        new ListAddressResolver(Collections.singletonList(address)), clientProvidedName);
+                nodeSelector.succeeded(address, System.nanoTime() - start);
+                return connection;
+            } catch (IOException | TimeoutException e) {
+                LOGGER.warn("Unable to connect to Rabbit-MQ node {}, ejected for {} ms : {}", address,
+                        NodeSelector.DEFAULT_COOLDOWN_MS, e.getMessage());
+                nodeSelector.failed(address);
+                lastException = e;
+            }
+        }
+
+        if (lastException instanceof TimeoutException) {
+            throw (TimeoutException) lastException;
+        }
+        throw lastException != null ? (IOException) lastException : new IOException("No Rabbit-MQ node defined");
+    }
+}
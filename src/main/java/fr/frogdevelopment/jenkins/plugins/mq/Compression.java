@@ -0,0 +1,46 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of the message body, see {@link PayloadCompressor}.
+ */
+public enum Compression {
+    /**
+     * No compression.
+     */
+    NONE(null, 0, false),
+    /**
+     * GZIP format, default compression level.
+     */
+    GZIP("gzip", Deflater.DEFAULT_COMPRESSION, true),
+    /**
+     * ZLIB format, fastest compression level.
+     */
+    DEFLATE("deflate", Deflater.BEST_SPEED, false);
+
+    private final String encoding;
+    private final int level;
+    private final boolean gzip;
+
+    Compression(String encoding, int level, boolean gzip) {
+        this.encoding = encoding;
+        this.level = level;
+        this.gzip = gzip;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return the content encoding of the compressed message, the original encoding being kept after a colon
+     */
+    String contentEncoding(String originalEncoding) {
+        return originalEncoding == null ? encoding : encoding + ":" + originalEncoding;
+    }
+}
@@ -0,0 +1,21 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * Connection metrics of a Rabbit-MQ config.
+ */
+public interface ConnectionMetricsMXBean {
+
+    int getOpenConnections();
+
+    int getOpenChannels();
+
+    /**
+     * @return true while the broker blocks the publishes, eg: on a memory or disk alarm
+     */
+    boolean isBlocked();
+
+    /**
+     * @return number of times the broker blocked the publishes
+     */
+    long getBlockedCount();
+}
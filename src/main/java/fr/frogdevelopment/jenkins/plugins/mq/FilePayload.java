@@ -0,0 +1,150 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Read a message body from a stream, without holding the content as a String : the bytes are copied as they come to
+ * a buffer sized from the expected length, or, with variables substitution or in <i>quoted</i> mode, decoded by chunks
+ * and written to a {@link JsonPayloadWriter}.<br>
+ * Variables have the same syntax than {@link MessageTemplate}, and are matched across chunk boundaries.
+ */
+final class FilePayload {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    // maximum size of an array
+    private static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private FilePayload() {
+    }
+
+    /**
+     * @param length    expected length of the stream, a wrong value only costing extra copies
+     * @param quoted    if true, the content is written as a JSON string, as the JSON message converter does
+     * @param variables variables values to substitute, <code>null</code> to send the content as is
+     * @return the message body, UTF-8 encoded when substituted or quoted
+     */
+    static byte[] read(InputStream in, long length, boolean quoted, Map<String, String> variables)
+            throws IOException {
+        if (length > MAX_SIZE) {
+            throw new IOException("File too large to be sent as a message : " + length + " bytes");
+        }
+
+        if (!quoted && variables == null) {
+            return readBytes(in, (int) Math.max(length, 0));
+        }
+
+        JsonPayloadWriter writer = JsonPayloadWriter.get(quoted);
+        writer.reserve((int) Math.max(length, 0));
+        new Substitution(writer, variables).copy(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return writer.toByteArray();
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        byte[] body = new byte[Math.max(length, CHUNK_SIZE)];
+        int size = 0;
+        int read;
+        while ((read = in.read(body, size, body.length - size)) != -1) {
+            size += read;
+            if (size == body.length) {
+                int next = in.read();
+                if (next == -1) {
+                    break;
+                }
+                if (size >= MAX_SIZE) {
+                    throw new IOException("File too large to be sent as a message");
+                }
+                // the file grew since its length was read
+                body = Arrays.copyOf(body, (int) Math.min(MAX_SIZE, 2L * size));
+                body[size++] = (byte) next;
+            }
+        }
+        return size == body.length ? body : Arrays.copyOf(body, size);
+    }
+
+    private static final class Substitution {
+
+        private final JsonPayloadWriter writer;
+        private final Map<String, String> variables;
+        // variable being read, possibly split between chunks : "$", "${", "$NAME" or "${NAME"
+        private final StringBuilder pending = new StringBuilder();
+
+        private Substitution(JsonPayloadWriter writer, Map<String, String> variables) {
+            this.writer = writer;
+            this.variables = variables;
+        }
+
+        private void copy(Reader reader) throws IOException {
+            char[] chunk = new char[CHUNK_SIZE];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                if (variables == null) {
+                    writer.text(chunk, 0, read);
+                } else {
+                    substitute(chunk, read);
+                }
+            }
+            if (pending.length() > 0) {
+                endVariable();
+            }
+        }
+
+        private void substitute(char[] chunk, int length) {
+            int literalStart = 0;
+            int i = 0;
+            while (i < length) {
+                char c = chunk[i];
+                if (pending.length() == 0) {
+                    if (c == '$') {
+                        writer.text(chunk, literalStart, i - literalStart);
+                        pending.append(c);
+                        literalStart = i + 1;
+                    }
+                    i++;
+                } else if (isWordCharacter(c) || (c == '{' && pending.length() == 1)) {
+                    pending.append(c);
+                    literalStart = ++i;
+                } else if (c == '}' && hasName()) {
+                    pending.append(c);
+                    endVariable();
+                    literalStart = ++i;
+                } else {
+                    // the character is not part of the variable, and is read again as a literal
+                    endVariable();
+                    literalStart = i;
+                }
+            }
+            writer.text(chunk, literalStart, length - literalStart);
+        }
+
+        private boolean hasName() {
+            return pending.length() > (pending.length() > 1 && pending.charAt(1) == '{' ? 2 : 1);
+        }
+
+        private void endVariable() {
+            if (hasName()) {
+                int nameStart = pending.charAt(1) == '{' ? 2 : 1;
+                int nameEnd = pending.charAt(pending.length() - 1) == '}' ? pending.length() - 1 : pending.length();
+                String name = pending.substring(nameStart, nameEnd);
+                if (variables.containsKey(name)) {
+                    String value = variables.get(name);
+                    writer.text(value != null ? value : "null");
+                } else {
+                    writer.text(pending.toString());
+                }
+            } else {
+                writer.text(pending.toString());
+            }
+            pending.setLength(0);
+        }
+
+        private static boolean isWordCharacter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer, encoding keys and values straight to a reusable UTF-8 byte buffer.<br>
+ * In <i>quoted</i> mode, the whole document is itself written as a JSON string (as a JSON converter would serialize
+ * a String holding the document), in the same single pass.
+ * <p>
+ * Writers are reused per thread : a writer is only valid until the next call to {@link #get(boolean)} on the same
+ * thread.
+ */
+final class JsonPayloadWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // bigger buffers are not kept between messages
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final char[] LOWER_HEX = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ThreadLocal<JsonPayloadWriter> WRITERS = ThreadLocal.withInitial(JsonPayloadWriter::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    private boolean quoted;
+    private boolean firstField;
+    private char highSurrogate;
+
+    private JsonPayloadWriter() {
+    }
+
+    /**
+     * @param quoted if true, the document is written as a JSON string
+     * @return the writer of the current thread, emptied
+     */
+    static JsonPayloadWriter get(boolean quoted) {
+        JsonPayloadWriter writer = WRITERS.get();
+        writer.reset(quoted);
+        return writer;
+    }
+
+    private void reset(boolean quoted) {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        this.size = 0;
+        this.quoted = quoted;
+        this.firstField = true;
+        this.highSurrogate = 0;
+
+        if (quoted) {
+            writeByte('"');
+        }
+    }
+
+    JsonPayloadWriter beginObject() {
+        emit('{');
+        firstField = true;
+        return this;
+    }
+
+    JsonPayloadWriter endObject() {
+        emit('}');
+        firstField = false;
+        return this;
+    }
+
+    JsonPayloadWriter name(String name) {
+        if (!firstField) {
+            emit(',');
+        }
+        firstField = false;
+
+        string(name);
+        emit(':');
+        return this;
+    }
+
+    JsonPayloadWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+
+        string(value);
+        return this;
+    }
+
+    JsonPayloadWriter nullValue() {
+        return rawValue("null");
+    }
+
+    /**
+     * @param json already serialized JSON value
+     */
+    JsonPayloadWriter rawValue(String json) {
+        for (int i = 0; i < json.length(); i++) {
+            emit(json.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * @param text text written as the document, without any JSON structure
+     */
+    JsonPayloadWriter text(String text) {
+        return rawValue(text);
+    }
+
+    /**
+     * @param chars text written as the document, without any JSON structure
+     */
+    JsonPayloadWriter text(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            emit(chars[i]);
+        }
+        return this;
+    }
+
+    /**
+     * @param bytes expected size of the document, to grow the buffer once
+     */
+    JsonPayloadWriter reserve(int bytes) {
+        ensureCapacity(bytes);
+        return this;
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    byte[] toByteArray() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeByte('?');
+        }
+        if (quoted) {
+            writeByte('"');
+            quoted = false;
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    // same escaping than net.sf.json
+    private void string(String value) {
+        emit('"');
+
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    emit('\\');
+                    emit(c);
+                    break;
+                case '/':
+                    if (previous == '<') {
+                        emit('\\');
+                    }
+                    emit(c);
+                    break;
+                case '\b':
+                    emit('\\');
+                    emit('b');
+                    break;
+                case '\t':
+                    emit('\\');
+                    emit('t');
+                    break;
+                case '\n':
+                    emit('\\');
+                    emit('n');
+                    break;
+                case '\f':
+                    emit('\\');
+                    emit('f');
+                    break;
+                case '\r':
+                    emit('\\');
+                    emit('r');
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        emit('\\');
+                        emit('u');
+                        emit(LOWER_HEX[(c >> 12) & 0xF]);
+                        emit(LOWER_HEX[(c >> 8) & 0xF]);
+                        emit(LOWER_HEX[(c >> 4) & 0xF]);
+                        emit(LOWER_HEX[c & 0xF]);
+                    } else {
+                        emit(c);
+                    }
+            }
+            previous = c;
+        }
+
+        emit('"');
+    }
+
+    private void emit(char c) {
+        if (!quoted) {
+            writeChar(c);
+            return;
+        }
+
+        // same escaping than Jackson
+        switch (c) {
+            case '\\':
+            case '"':
+                writeByte('\\');
+                writeByte(c);
+                break;
+            case '\b':
+                writeByte('\\');
+                writeByte('b');
+                break;
+            case '\t':
+                writeByte('\\');
+                writeByte('t');
+                break;
+            case '\n':
+                writeByte('\\');
+                writeByte('n');
+                break;
+            case '\f':
+                writeByte('\\');
+                writeByte('f');
+                break;
+            case '\r':
+                writeByte('\\');
+                writeByte('r');
+                break;
+            default:
+                if (c < ' ') {
+                    writeByte('\\');
+                    writeByte('u');
+                    writeByte('0');
+                    writeByte('0');
+                    writeByte(UPPER_HEX[(c >> 4) & 0xF]);
+                    writeByte(UPPER_HEX[c & 0xF]);
+                } else {
+                    writeChar(c);
+                }
+        }
+    }
+
+    // UTF-8 encoding, malformed surrogates being replaced by '?' as String#getBytes does
+    private void writeChar(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(4);
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            writeByte('?');
+        }
+
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            ensureCapacity(3);
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import net.sf.json.JSONException;
+import net.sf.json.JSONSerializer;
+import net.sf.json.util.JSONUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiled form of a <i>key=value</i> template, used to build JSON messages. Lines are parsed once, keys are converted
+ * to Java nomenclature once, and each value is resolved at rendering time.<br>
+ * A value referencing a variable is replaced by the value of its first variable, when known. A template
+ * {@link #compileExpanded(String) expanded} renders instead all the variables of its values, as the data of a step.
+ */
+final class KeyValueTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyValueTemplate.class);
+
+    private static final TemplateCache<KeyValueTemplate> CACHE =
+            new TemplateCache<>(256, template -> new KeyValueTemplate(template, false));
+    private static final TemplateCache<KeyValueTemplate> EXPANDED_CACHE =
+            new TemplateCache<>(256, template -> new KeyValueTemplate(template, true));
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<String> emptyKeyLines = new ArrayList<>();
+    private final List<String> incorrectLines = new ArrayList<>();
+
+    private KeyValueTemplate(String template, boolean expanded) {
+        for (String line : template.split("\\r?\\n")) {
+            String[] splitLine = line.split("=");
+            if (splitLine.length == 2) {
+                String paramKey = splitLine[0];
+                if (StringUtils.isNotBlank(paramKey)) {
+                    addEntry(new Entry(paramKey, splitLine[1], expanded));
+                } else {
+                    emptyKeyLines.add(line);
+                }
+            } else {
+                incorrectLines.add(line);
+            }
+        }
+    }
+
+    // as with a JSON object, a repeated key replaces the previous value at its position
+    private void addEntry(Entry entry) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).key.equals(entry.key)) {
+                entries.set(i, entry);
+                return;
+            }
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * @param template <i>key=value</i> lines
+     * @return compiled template, from cache if already compiled
+     */
+    static KeyValueTemplate compile(String template) {
+        return CACHE.get(template);
+    }
+
+    /**
+     * @param template <i>key=value</i> lines
+     * @return compiled template rendering all the variables of the values, from cache if already compiled
+     */
+    static KeyValueTemplate compileExpanded(String template) {
+        return EXPANDED_CACHE.get(template);
+    }
+
+    /**
+     * @return number of templates compiled in the caches
+     */
+    static long getCompilations() {
+        return CACHE.getCompilations() + EXPANDED_CACHE.getCompilations();
+    }
+
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @throws IllegalStateException if the template contains incorrect lines
+     */
+    void validate() {
+        if (emptyKeyLines.isEmpty() && incorrectLines.isEmpty()) {
+            return;
+        }
+
+        emptyKeyLines.forEach(line -> LOGGER.info("\t- Empty key for line : {}", line));
+        incorrectLines.forEach(line -> LOGGER.error("\t- Incorrect data format : {}", line));
+
+        throw new IllegalStateException("Incorrect data");
+    }
+
+    /**
+     * @param parameters variables values
+     * @return JSON message
+     * @throws IllegalStateException if the template contains incorrect lines
+     */
+    String render(Map<String, String> parameters) {
+        return new String(renderJson(parameters, false), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param parameters variables values
+     * @param quoted     if true, the JSON message is written as a JSON string
+     * @return UTF-8 encoded JSON message
+     * @throws IllegalStateException if the template contains incorrect lines
+     */
+    byte[] renderJson(Map<String, String> parameters, boolean quoted) {
+        validate();
+
+        JsonPayloadWriter writer = JsonPayloadWriter.get(quoted).beginObject();
+        for (Entry entry : entries) {
+            String paramValue = entry.resolve(parameters);
+
+            LOGGER.debug("\t- {}={}", entry.rawKey, paramValue);
+            writer.name(entry.key);
+            writeValue(writer, paramValue);
+        }
+
+        return writer.endObject().toByteArray();
+    }
+
+    /**
+     * @param parameters variables values
+     * @param format     binary format of the map, not {@link PayloadFormat#JSON}
+     * @return the message encoded as a map, with the same keys and values than the JSON message
+     * @throws IllegalStateException if the template contains incorrect lines
+     */
+    byte[] renderBinary(Map<String, String> parameters, PayloadFormat format) {
+        validate();
+
+        BinaryPayloadWriter writer = BinaryPayloadWriter.get(format).beginMap(entries.size());
+        for (Entry entry : entries) {
+            String paramValue = entry.resolve(parameters);
+
+            LOGGER.debug("\t- {}={}", entry.rawKey, paramValue);
+            writer.value(entry.key);
+            writeValue(writer, paramValue);
+        }
+
+        return writer.toByteArray();
+    }
+
+    // same conversions than net.sf.json for values
+    private static void writeValue(JsonPayloadWriter writer, String value) {
+        if (value == null || "null".equals(value)) {
+            writer.nullValue();
+        } else if (JSONUtils.mayBeJSON(value)) {
+            // nested JSON object or array, rare enough to be delegated
+            try {
+                writer.rawValue(JSONSerializer.toJSON(value).toString());
+            } catch (JSONException e) {
+                writer.value(value);
+            }
+        } else {
+            writer.value(value);
+        }
+    }
+
+    private static void writeValue(BinaryPayloadWriter writer, String value) {
+        if (value == null || "null".equals(value)) {
+            writer.nullValue();
+        } else if (JSONUtils.mayBeJSON(value)) {
+            // nested JSON object or array, written as a nested map or array
+            try {
+                writer.json(JSONSerializer.toJSON(value));
+            } catch (JSONException e) {
+                writer.value(value);
+            }
+        } else {
+            writer.value(value);
+        }
+    }
+
+    static final class Entry {
+
+        private final String rawKey;
+        final String key;
+        private final String rawValue;
+        private final MessageTemplate.Slot slot;
+        // all the variables of the value, for an expanded template
+        private final MessageTemplate value;
+
+        private Entry(String rawKey, String rawValue, boolean expanded) {
+            this.rawKey = rawKey;
+            this.key = Utils.toJava(rawKey);
+            this.rawValue = rawValue;
+            this.value = expanded ? MessageTemplate.parse(rawValue) : null;
+
+            int index = rawValue.indexOf('$');
+            MessageTemplate.Slot firstSlot = null;
+            while (index >= 0 && firstSlot == null) {
+                firstSlot = MessageTemplate.Slot.parse(rawValue, index);
+                index = rawValue.indexOf('$', index + 1);
+            }
+            this.slot = firstSlot;
+        }
+
+        /**
+         * @return name of the variable replacing the value, or <code>null</code> for a literal value
+         */
+        String getVariable() {
+            return slot != null ? slot.name : null;
+        }
+
+        /**
+         * @return resolved value, possibly <code>null</code> if the variable value is <code>null</code>
+         */
+        String resolve(Map<String, String> parameters) {
+            if (value != null) {
+                return value.render(parameters);
+            }
+            if (slot != null && parameters.containsKey(slot.name)) {
+                return parameters.get(slot.name);
+            }
+            return rawValue;
+        }
+    }
+}
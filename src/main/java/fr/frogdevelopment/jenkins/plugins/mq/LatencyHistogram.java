@@ -0,0 +1,151 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram, in microseconds, with 4 buckets per power of two : percentiles are estimated within
+ * 25%, whatever the latency.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    // up to 2^36 us, ~19 hours
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record the time elapsed since the given {@link System#nanoTime()}.
+     *
+     * @return the current {@link System#nanoTime()}, to chain the measures
+     */
+    long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(TimeUnit.NANOSECONDS.toMicros(now - startNanos));
+        return now;
+    }
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    Snapshot snapshot() {
+        long[] values = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            values[i] = counts.get(i);
+            total += values[i];
+        }
+
+        long maximum = max.get();
+        return new Snapshot(total,
+                total > 0 ? toMillis(sum.sum()) / total : 0,
+                percentile(values, total, 0.50, maximum),
+                percentile(values, total, 0.95, maximum),
+                percentile(values, total, 0.99, maximum),
+                toMillis(maximum));
+    }
+
+    private static double percentile(long[] values, long total, double quantile, long maximum) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += values[i];
+            if (seen >= rank) {
+                return toMillis(Math.min(upperBound(i), maximum));
+            }
+        }
+        return toMillis(maximum);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        // the 2 bits following the highest one select the sub-bucket
+        int subBucket = (int) (micros >> (exponent - 2)) - SUB_BUCKETS;
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - 2)) - 1;
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000d;
+    }
+
+    /**
+     * Latencies in milliseconds.
+     */
+    public static final class Snapshot {
+
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p95;
+        private final double p99;
+        private final double max;
+
+        @ConstructorProperties({"count", "mean", "p50", "p95", "p99", "max"})
+        public Snapshot(long count, double mean, double p50, double p95, double p99, double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
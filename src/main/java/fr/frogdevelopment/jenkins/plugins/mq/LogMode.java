@@ -0,0 +1,23 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * How the published message is written to the build console and to the logs, see {@link MessageLog}.
+ */
+public enum LogMode {
+    /**
+     * Nothing is written.
+     */
+    NONE,
+    /**
+     * The first bytes of the body, and the size of the rest.
+     */
+    PREVIEW,
+    /**
+     * The SHA-256 hash and the size of the body.
+     */
+    HASH,
+    /**
+     * The whole body.
+     */
+    FULL
+}
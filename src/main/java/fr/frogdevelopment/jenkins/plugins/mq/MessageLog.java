@@ -0,0 +1,245 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rendering of a message body according to a {@link LogMode}, done only when written : to the console, where the
+ * bytes of the body are written as is, or to a logger through {@link #toString()}, only called when the log level is
+ * enabled.
+ */
+final class MessageLog {
+
+    private final LogMode mode;
+    private final byte[] body;
+    private final int previewBytes;
+    // body written as a JSON string, unescaped when written
+    private final boolean jsonString;
+
+    MessageLog(LogMode mode, byte[] body, int previewBytes) {
+        this(mode, body, previewBytes, false);
+    }
+
+    private MessageLog(LogMode mode, byte[] body, int previewBytes, boolean jsonString) {
+        this.mode = mode;
+        this.body = body;
+        this.previewBytes = previewBytes;
+        this.jsonString = jsonString;
+    }
+
+    /**
+     * Log of a body written as a JSON string : the text it contains is logged rather than its escaped form, and its
+     * hash is the one of the body sent. A body which is not a JSON string is logged as it is.
+     */
+    static MessageLog ofJsonString(LogMode mode, byte[] body, int previewBytes) {
+        boolean quoted = body.length >= 2 && body[0] == '"' && body[body.length - 1] == '"';
+        return new MessageLog(mode, body, previewBytes, quoted);
+    }
+
+    /**
+     * Write the body, without any copy in {@link LogMode#FULL} and {@link LogMode#PREVIEW} modes.
+     */
+    void writeTo(PrintStream console) {
+        switch (mode) {
+            case NONE:
+                return;
+            case HASH:
+                console.println(hash());
+                return;
+            default:
+                if (jsonString) {
+                    int remaining = unescapeTo(console, mode == LogMode.FULL ? Integer.MAX_VALUE : previewBytes);
+                    console.println(remaining > 0 ? "... (" + remaining + " more bytes)" : "");
+                    return;
+                }
+                int length = previewLength();
+                console.write(body, 0, length);
+                console.println(length < body.length ? "... (" + (body.length - length) + " more bytes)" : "");
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case NONE:
+                return "";
+            case HASH:
+                return hash();
+            default:
+                if (jsonString) {
+                    int limit = mode == LogMode.FULL ? Integer.MAX_VALUE : previewBytes;
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(body.length, limit));
+                    int remaining = unescapeTo(new PrintStream(bytes), limit);
+                    String unescaped = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                    return remaining > 0 ? unescaped + "... (" + remaining + " more bytes)" : unescaped;
+                }
+                int length = previewLength();
+                String text = new String(body, 0, length, StandardCharsets.UTF_8);
+                return length < body.length ? text + "... (" + (body.length - length) + " more bytes)" : text;
+        }
+    }
+
+    /**
+     * Write the text of the JSON string, unescaped while written : the bytes between the escapes are written as they
+     * are, and the writing stops on a character boundary once the limit is reached, the rest of the body being left
+     * untouched.
+     *
+     * @param limit maximum number of bytes written
+     * @return number of bytes of the body, escaped, left unwritten
+     */
+    private int unescapeTo(PrintStream out, int limit) {
+        // the closing quote
+        int end = body.length - 1;
+        byte[] escaped = new byte[4];
+        int written = 0;
+        int i = 1;
+        while (i < end) {
+            int run = i;
+            while (run < end && body[run] != '\\') {
+                run++;
+            }
+            if (run > i) {
+                int length = Math.min(run - i, limit - written);
+                // the bytes of a multi-byte character are never escaped, the run is cut before one
+                while (length < run - i && length > 0 && (body[i + length] & 0xC0) == 0x80) {
+                    length--;
+                }
+                out.write(body, i, length);
+                written += length;
+                i += length;
+                if (i < run) {
+                    return end - i;
+                }
+                continue;
+            }
+
+            int next;
+            int count;
+            if (i + 1 == end) {
+                // trailing backslash, written as it is
+                escaped[0] = '\\';
+                count = 1;
+                next = end;
+            } else {
+                next = i + 2;
+                count = 1;
+                switch (body[i + 1]) {
+                    case 'b':
+                        escaped[0] = '\b';
+                        break;
+                    case 'f':
+                        escaped[0] = '\f';
+                        break;
+                    case 'n':
+                        escaped[0] = '\n';
+                        break;
+                    case 'r':
+                        escaped[0] = '\r';
+                        break;
+                    case 't':
+                        escaped[0] = '\t';
+                        break;
+                    case 'u':
+                        int c = hex(i + 2, end);
+                        if (c < 0) {
+                            // not an escape, written as it is
+                            escaped[0] = '\\';
+                            escaped[1] = 'u';
+                            count = 2;
+                            break;
+                        }
+                        next = i + 6;
+                        int codePoint = c;
+                        if (Character.isHighSurrogate((char) c) && next + 1 < end && body[next] == '\\'
+                                && body[next + 1] == 'u') {
+                            int low = hex(next + 2, end);
+                            if (low >= 0 && Character.isLowSurrogate((char) low)) {
+                                codePoint = Character.toCodePoint((char) c, (char) low);
+                                next += 6;
+                            }
+                        }
+                        count = utf8(codePoint, escaped);
+                        break;
+                    default:
+                        // quote, backslash and slash
+                        escaped[0] = body[i + 1];
+                }
+            }
+
+            if (written + count > limit) {
+                return end - i;
+            }
+            out.write(escaped, 0, count);
+            written += count;
+            i = next;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the value of the 4 hexadecimal digits at the index, or -1 if they are not
+     */
+    private int hex(int index, int end) {
+        if (index + 4 > end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = index; i < index + 4; i++) {
+            int digit = Character.digit(body[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the code point, a lone surrogate being replaced by '?' as by
+     * {@link String#getBytes(java.nio.charset.Charset)}
+     */
+    private static int utf8(int codePoint, byte[] bytes) {
+        if (codePoint < 0x80) {
+            bytes[0] = (byte) codePoint;
+            return 1;
+        }
+        if (codePoint < 0x800) {
+            bytes[0] = (byte) (0xC0 | codePoint >> 6);
+            bytes[1] = (byte) (0x80 | codePoint & 0x3F);
+            return 2;
+        }
+        if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000) {
+            bytes[0] = '?';
+            return 1;
+        }
+        if (codePoint < 0x10000) {
+            bytes[0] = (byte) (0xE0 | codePoint >> 12);
+            bytes[1] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            bytes[2] = (byte) (0x80 | codePoint & 0x3F);
+            return 3;
+        }
+        bytes[0] = (byte) (0xF0 | codePoint >> 18);
+        bytes[1] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        bytes[2] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        bytes[3] = (byte) (0x80 | codePoint & 0x3F);
+        return 4;
+    }
+
+    // the preview ends on a character boundary
+    private int previewLength() {
+        if (mode == LogMode.FULL || body.length <= previewBytes) {
+            return body.length;
+        }
+
+        int length = previewBytes;
+        while (length > 0 && (body[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    private String hash() {
+        return "sha256:" + Utils.sha256(body) + ", " + body.length + " bytes";
+    }
+}
@@ -0,0 +1,135 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * MessagePack encoding : small maps, arrays, strings and integers fit in their first byte, bigger ones use the
+ * shortest of the sized forms.
+ */
+final class MessagePackPayloadWriter extends BinaryPayloadWriter {
+
+    private static final int NIL = 0xC0;
+    private static final int FALSE = 0xC2;
+    private static final int TRUE = 0xC3;
+    private static final int FLOAT_64 = 0xCB;
+    private static final int UINT_8 = 0xCC;
+    private static final int UINT_16 = 0xCD;
+    private static final int UINT_32 = 0xCE;
+    private static final int UINT_64 = 0xCF;
+    private static final int INT_8 = 0xD0;
+    private static final int INT_16 = 0xD1;
+    private static final int INT_32 = 0xD2;
+    private static final int INT_64 = 0xD3;
+    private static final int STR_8 = 0xD9;
+    private static final int STR_16 = 0xDA;
+    private static final int STR_32 = 0xDB;
+    private static final int ARRAY_16 = 0xDC;
+    private static final int ARRAY_32 = 0xDD;
+    private static final int MAP_16 = 0xDE;
+    private static final int MAP_32 = 0xDF;
+
+    MessagePackPayloadWriter() {
+    }
+
+    @Override
+    BinaryPayloadWriter beginMap(int entries) {
+        if (entries < 16) {
+            writeByte(0x80 | entries);
+        } else if (entries < 0x10000) {
+            writeByte(MAP_16);
+            writeShort(entries);
+        } else {
+            writeByte(MAP_32);
+            writeInt(entries);
+        }
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter beginArray(int elements) {
+        if (elements < 16) {
+            writeByte(0x90 | elements);
+        } else if (elements < 0x10000) {
+            writeByte(ARRAY_16);
+            writeShort(elements);
+        } else {
+            writeByte(ARRAY_32);
+            writeInt(elements);
+        }
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(String value) {
+        int length = utf8Length(value);
+        if (length < 32) {
+            writeByte(0xA0 | length);
+        } else if (length < 0x100) {
+            writeByte(STR_8);
+            writeByte(length);
+        } else if (length < 0x10000) {
+            writeByte(STR_16);
+            writeShort(length);
+        } else {
+            writeByte(STR_32);
+            writeInt(length);
+        }
+        writeUtf8(value, length);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                // positive fixint
+                writeByte((int) value);
+            } else if (value < 0x100) {
+                writeByte(UINT_8);
+                writeByte((int) value);
+            } else if (value < 0x10000) {
+                writeByte(UINT_16);
+                writeShort((int) value);
+            } else if (value < 0x100000000L) {
+                writeByte(UINT_32);
+                writeInt(value);
+            } else {
+                writeByte(UINT_64);
+                writeLong(value);
+            }
+        } else if (value >= -32) {
+            // negative fixint
+            writeByte((int) value & 0xFF);
+        } else if (value >= Byte.MIN_VALUE) {
+            writeByte(INT_8);
+            writeByte((int) value);
+        } else if (value >= Short.MIN_VALUE) {
+            writeByte(INT_16);
+            writeShort((int) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            writeByte(INT_32);
+            writeInt(value);
+        } else {
+            writeByte(INT_64);
+            writeLong(value);
+        }
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(double value) {
+        writeByte(FLOAT_64);
+        writeLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter value(boolean value) {
+        writeByte(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    BinaryPayloadWriter nullValue() {
+        writeByte(NIL);
+        return this;
+    }
+}
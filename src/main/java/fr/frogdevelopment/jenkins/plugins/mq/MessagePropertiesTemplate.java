@@ -0,0 +1,112 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * AMQP properties set on the published messages, parsed once per step configuration : the headers without variables
+ * are resolved at parsing, the values with variables are compiled at parsing and rendered for each message, as the
+ * data.
+ */
+final class MessagePropertiesTemplate {
+
+    private final MessageDeliveryMode deliveryMode;
+    private final MessageTemplate expiration;
+    private final int priority;
+    private final String contentType;
+    private final MessageTemplate messageId;
+    private final Map<String, Object> staticHeaders;
+    private final Map<String, MessageTemplate> variableHeaders;
+
+    /**
+     * @param headers one <code>name=value</code> header per line
+     * @throws IllegalArgumentException if a header line has no name
+     */
+    MessagePropertiesTemplate(MessageDeliveryMode deliveryMode, String expiration, int priority, String contentType,
+                              String messageId, String headers) {
+        this.deliveryMode = deliveryMode;
+        this.expiration = compile(expiration);
+        this.priority = priority;
+        this.contentType = StringUtils.trimToNull(contentType);
+        this.messageId = compile(messageId);
+
+        Map<String, Object> staticValues = new LinkedHashMap<>();
+        Map<String, MessageTemplate> variableValues = new LinkedHashMap<>();
+        for (String[] header : parseHeaders(headers)) {
+            if (header[1].indexOf('$') < 0) {
+                staticValues.put(header[0], header[1]);
+            } else {
+                variableValues.put(header[0], MessageTemplate.parse(header[1]));
+            }
+        }
+        this.staticHeaders = Collections.unmodifiableMap(staticValues);
+        this.variableHeaders = Collections.unmodifiableMap(variableValues);
+    }
+
+    private static MessageTemplate compile(String value) {
+        String trimmed = StringUtils.trimToNull(value);
+        return trimmed != null ? MessageTemplate.parse(trimmed) : null;
+    }
+
+    /**
+     * @return the name and value of each header
+     * @throws IllegalArgumentException if a header line has no name
+     */
+    static List<String[]> parseHeaders(String headers) {
+        if (StringUtils.isBlank(headers)) {
+            return Collections.emptyList();
+        }
+
+        List<String[]> parsed = new ArrayList<>();
+        for (String line : headers.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            int separator = line.indexOf('=');
+            String name = separator > 0 ? line.substring(0, separator).trim() : "";
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Incorrect header, expected name=value : " + line);
+            }
+            parsed.add(new String[]{name, line.substring(separator + 1).trim()});
+        }
+        return parsed;
+    }
+
+    /**
+     * Set the properties on the message, after those set by the body conversion.
+     *
+     * @throws IllegalArgumentException if the expiration is not a number of milliseconds
+     */
+    void applyTo(MessageProperties properties, Map<String, String> variables) {
+        if (deliveryMode != null) {
+            properties.setDeliveryMode(deliveryMode);
+        }
+        if (expiration != null) {
+            String rendered = expiration.render(variables);
+            if (!StringUtils.isNumeric(rendered) || rendered.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Incorrect expiration, expected a number of milliseconds : " + rendered);
+            }
+            properties.setExpiration(rendered);
+        }
+        if (priority > 0) {
+            properties.setPriority(priority);
+        }
+        if (contentType != null) {
+            properties.setContentType(contentType);
+        }
+        if (messageId != null) {
+            properties.setMessageId(messageId.render(variables));
+        }
+
+        properties.getHeaders().putAll(staticHeaders);
+        variableHeaders.forEach((name, value) -> properties.setHeader(name, value.render(variables)));
+    }
+}
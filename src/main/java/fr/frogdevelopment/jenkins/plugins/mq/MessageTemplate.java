@@ -0,0 +1,151 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled form of a message template : literal segments and variable slots (<code>$VAR</code> or
+ * <code>${VAR}</code>), parsed once and rendered in a single pass.<br>
+ * A variable without value is kept as written in the template.
+ */
+final class MessageTemplate {
+
+    private static final TemplateCache<MessageTemplate> CACHE = new TemplateCache<>(256, MessageTemplate::new);
+
+    // literals[i] precedes slots[i], the last literal follows the last slot
+    private final String[] literals;
+    private final Slot[] slots;
+    private final int literalsLength;
+
+    private MessageTemplate(String template) {
+        List<String> literalList = new ArrayList<>();
+        List<Slot> slotList = new ArrayList<>();
+
+        int length = template.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < length) {
+            Slot slot = template.charAt(i) == '$' ? Slot.parse(template, i) : null;
+            if (slot != null) {
+                literalList.add(template.substring(literalStart, i));
+                slotList.add(slot);
+                i += slot.raw.length();
+                literalStart = i;
+            } else {
+                i++;
+            }
+        }
+        literalList.add(template.substring(literalStart));
+
+        this.literals = literalList.toArray(new String[0]);
+        this.slots = slotList.toArray(new Slot[0]);
+        this.literalsLength = length - slotList.stream().mapToInt(s -> s.raw.length()).sum();
+    }
+
+    /**
+     * @param template message template
+     * @return compiled template, from cache if already compiled
+     */
+    static MessageTemplate compile(String template) {
+        return CACHE.get(template);
+    }
+
+    /**
+     * @param template template owned by the caller, compiled once and kept by it
+     * @return compiled template, not cached
+     */
+    static MessageTemplate parse(String template) {
+        return new MessageTemplate(template);
+    }
+
+    /**
+     * @return number of templates compiled in the cache
+     */
+    static long getCompilations() {
+        return CACHE.getCompilations();
+    }
+
+    /**
+     * @return names of the variables referenced by the template, in order of first appearance
+     */
+    Set<String> getVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        for (Slot slot : slots) {
+            variables.add(slot.name);
+        }
+        return Collections.unmodifiableSet(variables);
+    }
+
+    /**
+     * @param parameters variables values, a <code>null</code> value being rendered as <code>"null"</code>
+     * @return rendered message
+     */
+    String render(Map<String, String> parameters) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+
+        StringBuilder sb = new StringBuilder(literalsLength + 16 * slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            slots[i].appendTo(sb, parameters);
+        }
+        sb.append(literals[slots.length]);
+
+        return sb.toString();
+    }
+
+    static final class Slot {
+
+        final String name;
+        final String raw;
+
+        private Slot(String name, String raw) {
+            this.name = name;
+            this.raw = raw;
+        }
+
+        /**
+         * Parse a variable starting at a '$' character, same syntax as <code>\$\{?(\w+)}?</code>
+         *
+         * @return the variable, or <code>null</code> if there is no variable at this index
+         */
+        static Slot parse(String text, int index) {
+            int length = text.length();
+            int nameStart = index + 1;
+            if (nameStart < length && text.charAt(nameStart) == '{') {
+                nameStart++;
+            }
+
+            int nameEnd = nameStart;
+            while (nameEnd < length && isWordCharacter(text.charAt(nameEnd))) {
+                nameEnd++;
+            }
+
+            if (nameEnd == nameStart) {
+                return null;
+            }
+
+            int end = nameEnd < length && text.charAt(nameEnd) == '}' ? nameEnd + 1 : nameEnd;
+
+            return new Slot(text.substring(nameStart, nameEnd), text.substring(index, end));
+        }
+
+        void appendTo(StringBuilder sb, Map<String, String> parameters) {
+            if (parameters.containsKey(name)) {
+                String value = parameters.get(name);
+                sb.append(value != null ? value : "null");
+            } else {
+                sb.append(raw);
+            }
+        }
+
+        private static boolean isWordCharacter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
+}
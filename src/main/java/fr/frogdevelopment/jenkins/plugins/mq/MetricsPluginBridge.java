@@ -0,0 +1,68 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import fr.frogdevelopment.jenkins.plugins.mq.LatencyHistogram.Snapshot;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqMetrics.ConnectionMetrics;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqMetrics.PublishMetrics;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Exposes the metrics in the registry of the Metrics plugin. Only loaded when the plugin is installed.
+ */
+final class MetricsPluginBridge {
+
+    static final MetricsPluginBridge INSTANCE = new MetricsPluginBridge();
+
+    private static final String PREFIX = "rabbitmq-publisher";
+
+    private MetricsPluginBridge() {
+    }
+
+    void register(String rabbitName, String exchange, PublishMetrics metrics) {
+        MetricRegistry registry = Metrics.metricRegistry();
+
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, exchange, "messages"),
+                (Gauge<Long>) metrics::getMessages);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, exchange, "bytes"),
+                (Gauge<Long>) metrics::getBytes);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, exchange, "failures"),
+                (Gauge<Long>) metrics::getFailures);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, exchange, "in-flight"),
+                (Gauge<Integer>) metrics::getInFlight);
+
+        registerLatency(registry, MetricRegistry.name(PREFIX, rabbitName, exchange, "render"), metrics::getRenderLatency);
+        registerLatency(registry, MetricRegistry.name(PREFIX, rabbitName, exchange, "connect"), metrics::getConnectLatency);
+        registerLatency(registry, MetricRegistry.name(PREFIX, rabbitName, exchange, "send"), metrics::getSendLatency);
+        registerLatency(registry, MetricRegistry.name(PREFIX, rabbitName, exchange, "confirm"), metrics::getConfirmLatency);
+    }
+
+    void register(String rabbitName, ConnectionMetrics metrics) {
+        MetricRegistry registry = Metrics.metricRegistry();
+
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, "connections"),
+                (Gauge<Integer>) metrics::getOpenConnections);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, "channels"),
+                (Gauge<Integer>) metrics::getOpenChannels);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, "blocked"),
+                (Gauge<Boolean>) metrics::isBlocked);
+        registry.register(MetricRegistry.name(PREFIX, rabbitName, "blocked-count"),
+                (Gauge<Long>) metrics::getBlockedCount);
+    }
+
+    private static void registerLatency(MetricRegistry registry, String name, Supplier<Snapshot> snapshot) {
+        registerLatency(registry, name, "count", snapshot, s -> (double) s.getCount());
+        registerLatency(registry, name, "mean", snapshot, Snapshot::getMean);
+        registerLatency(registry, name, "p50", snapshot, Snapshot::getP50);
+        registerLatency(registry, name, "p95", snapshot, Snapshot::getP95);
+        registerLatency(registry, name, "p99", snapshot, Snapshot::getP99);
+        registerLatency(registry, name, "max", snapshot, Snapshot::getMax);
+    }
+
+    private static void registerLatency(MetricRegistry registry, String name, String value, Supplier<Snapshot> snapshot,
+                                        Function<Snapshot, Double> getter) {
+        registry.register(MetricRegistry.name(name, value), (Gauge<Double>) () -> getter.apply(snapshot.get()));
+    }
+}
@@ -0,0 +1,124 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Address;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Order the nodes of a cluster for the next connection : nodes with the lowest connect latency first, nodes which
+ * failed to connect being ejected at the end of the list for a cooldown period.
+ */
+final class NodeSelector {
+
+    static final long DEFAULT_COOLDOWN_MS = TimeUnit.SECONDS.toMillis(30);
+
+    // weight of the last measure in the average latency
+    private static final double ALPHA = 0.3;
+
+    private final List<Node> nodes;
+    private final long cooldownMs;
+    private final LongSupplier clock;
+
+    NodeSelector(List<Address> addresses) {
+        this(addresses, DEFAULT_COOLDOWN_MS, System::currentTimeMillis);
+    }
+
+    NodeSelector(List<Address> addresses, long cooldownMs, LongSupplier clock) {
+        this.nodes = new ArrayList<>(addresses.size());
+        for (Address address : addresses) {
+            nodes.add(new Node(address));
+        }
+        this.cooldownMs = cooldownMs;
+        this.clock = clock;
+    }
+
+    /**
+     * @return all the nodes, available ones by increasing latency (not yet measured first), then ejected ones by end
+     * of cooldown
+     */
+    List<Address> ordered() {
+        long now = clock.getAsLong();
+
+        // values are read once, as they may change while sorting
+        List<State> available = new ArrayList<>(nodes.size());
+        List<State> ejected = new ArrayList<>();
+        for (Node node : nodes) {
+            State state = new State(node.address, node.latencyNanos, node.ejectedUntil);
+            if (state.ejectedUntil > now) {
+                ejected.add(state);
+            } else {
+                available.add(state);
+            }
+        }
+        available.sort(Comparator.comparingDouble(state -> state.latencyNanos));
+        ejected.sort(Comparator.comparingLong(state -> state.ejectedUntil));
+
+        List<Address> ordered = new ArrayList<>(nodes.size());
+        available.forEach(state -> ordered.add(state.address));
+        ejected.forEach(state -> ordered.add(state.address));
+        return ordered;
+    }
+
+    void succeeded(Address address, long latencyNanos) {
+        Node node = find(address);
+        if (node != null) {
+            synchronized (node) {
+                node.latencyNanos = node.latencyNanos == 0
+                        ? latencyNanos
+                        : ALPHA * latencyNanos + (1 - ALPHA) * node.latencyNanos;
+                node.ejectedUntil = 0;
+            }
+        }
+    }
+
+    void failed(Address address) {
+        Node node = find(address);
+        if (node != null) {
+            node.ejectedUntil = clock.getAsLong() + cooldownMs;
+        }
+    }
+
+    /**
+     * @return average connect latency of the node in ms, 0 if not measured
+     */
+    double getLatencyMs(Address address) {
+        Node node = find(address);
+        return node != null ? node.latencyNanos / 1_000_000 : 0;
+    }
+
+    private Node find(Address address) {
+        for (Node node : nodes) {
+            if (node.address.equals(address)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static final class Node {
+
+        private final Address address;
+        private volatile double latencyNanos;
+        private volatile long ejectedUntil;
+
+        private Node(Address address) {
+            this.address = address;
+        }
+    }
+
+    private static final class State {
+
+        private final Address address;
+        private final double latencyNanos;
+        private final long ejectedUntil;
+
+        private State(Address address, double latencyNanos, long ejectedUntil) {
+            this.address = address;
+            this.latencyNanos = latencyNanos;
+            this.ejectedUntil = ejectedUntil;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compress message bodies, with the same formats and content encodings than the compressing post processors of
+ * Spring AMQP, so that consumers can decompress them with <code>DelegatingDecompressingPostProcessor</code>.<br>
+ * Deflaters and output buffers are reused through a small pool : the compressors beyond it are ended after use, so
+ * that the native memory of their deflaters is released rather than left to the finalizer.
+ */
+final class PayloadCompressor {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // bigger buffers are not kept between messages
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    static final int POOL_SIZE = 8;
+    private static final BlockingQueue<PayloadCompressor> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final Deflater[] deflaters = new Deflater[Compression.values().length];
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    private PayloadCompressor() {
+    }
+
+    /**
+     * @return the compressed body
+     */
+    static byte[] compress(Compression compression, byte[] body) {
+        if (compression == Compression.NONE) {
+            return body;
+        }
+
+        PayloadCompressor compressor = POOL.poll();
+        if (compressor == null) {
+            compressor = new PayloadCompressor();
+        }
+        try {
+            return compressor.doCompress(compression, body);
+        } finally {
+            if (!POOL.offer(compressor)) {
+                compressor.end();
+            }
+        }
+    }
+
+    /**
+     * @return number of compressors kept for reuse
+     */
+    static int pooled() {
+        return POOL.size();
+    }
+
+    private void end() {
+        for (Deflater deflater : deflaters) {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private byte[] doCompress(Compression compression, byte[] body) {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+
+        Deflater deflater = deflaters[compression.ordinal()];
+        if (deflater == null) {
+            // raw deflate for gzip, which has its own header and trailer
+            deflater = new Deflater(compression.getLevel(), compression.isGzip());
+            deflaters[compression.ordinal()] = deflater;
+        } else {
+            deflater.reset();
+        }
+
+        int size = 0;
+        if (compression.isGzip()) {
+            System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+            size = GZIP_HEADER.length;
+        }
+
+        deflater.setInput(body);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        }
+
+        if (compression.isGzip()) {
+            if (size + GZIP_TRAILER_SIZE > buffer.length) {
+                buffer = Arrays.copyOf(buffer, size + GZIP_TRAILER_SIZE);
+            }
+            crc.reset();
+            crc.update(body);
+            size = writeIntLE(buffer, size, (int) crc.getValue());
+            size = writeIntLE(buffer, size, body.length);
+        }
+
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private static int writeIntLE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+        return offset + 4;
+    }
+}
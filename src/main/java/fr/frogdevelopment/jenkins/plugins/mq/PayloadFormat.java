@@ -0,0 +1,29 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * Serialization format of the messages built from <i>key=value</i> data, see {@link KeyValueTemplate}.
+ */
+public enum PayloadFormat {
+    /**
+     * Textual JSON object (default).
+     */
+    JSON("application/json"),
+    /**
+     * CBOR map (RFC 8949), smaller and faster to parse than JSON.
+     */
+    CBOR("application/cbor"),
+    /**
+     * MessagePack map, smaller and faster to parse than JSON.
+     */
+    MESSAGE_PACK("application/x-msgpack");
+
+    private final String contentType;
+
+    PayloadFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,24 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+/**
+ * How the data, or the file, is written to the message body.
+ */
+public enum PayloadType {
+    /**
+     * The text as is, UTF-8 encoded.
+     */
+    TEXT,
+    /**
+     * The text written as a JSON string, as the JSON message converter does (default).
+     */
+    ESCAPED_STRING,
+    /**
+     * Bytes placed in the body as they are, without charset encoding : the data is base64 encoded, one message per
+     * line in batch mode, and the file is sent as is.
+     */
+    BINARY;
+
+    static PayloadType of(boolean conversion) {
+        return conversion ? ESCAPED_STRING : TEXT;
+    }
+}
@@ -0,0 +1,210 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Idempotency keys of the messages recently published, so that a build retried, restarted or replayed does not
+ * publish the same message again : a key is kept until its window ends, and the oldest keys are evicted beyond
+ * {@link #MAX_ENTRIES}.<br>
+ * The keys are appended to a log on disk when published, and read back after a restart. The log is rewritten with
+ * the live keys only when loaded, and when it grows beyond twice the entries.<br>
+ * A key is {@link #tryReserve(String, String) reserved} before its message is sent, so that two builds publishing the
+ * same key at the same time do not both send it : the key is then either {@link #published(String, String, long)
+ * published} or {@link #release(String, String) released}.
+ * <p>
+ * Record format : <code>[expiresAt:long][rabbitName:utf][key:utf]</code>
+ */
+class PublishDedupCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublishDedupCache.class);
+
+    static final int MAX_ENTRIES = 10_000;
+
+    private final File file;
+    private final LongSupplier clock;
+
+    // expiry in ms of each key, oldest first, guarded by this
+    private final Map<String, Long> expiries = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // keys of the messages being sent, guarded by this
+    private final Set<String> reserved = new HashSet<>();
+
+    // guarded by this
+    private DataOutputStream log;
+    private int logRecords;
+
+    PublishDedupCache(File file) throws IOException {
+        this(file, System::currentTimeMillis);
+    }
+
+    PublishDedupCache(File file, LongSupplier clock) throws IOException {
+        this.file = file;
+        this.clock = clock;
+
+        Files.createDirectories(file.getParentFile().toPath());
+        load();
+        compact();
+    }
+
+    /**
+     * @return true if a message with this key was published to this Rabbit-MQ within its window
+     */
+    synchronized boolean isPublished(String rabbitName, String key) {
+        String entry = entry(rabbitName, key);
+        Long expiresAt = expiries.get(entry);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt <= clock.getAsLong()) {
+            expiries.remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reserve the key of a message about to be sent : until it is published or released, the key can not be reserved
+     * again.
+     *
+     * @return false if a message with this key was published to this Rabbit-MQ within its window, or is being sent
+     */
+    synchronized boolean tryReserve(String rabbitName, String key) {
+        if (isPublished(rabbitName, key)) {
+            return false;
+        }
+        return reserved.add(entry(rabbitName, key));
+    }
+
+    /**
+     * Release the key of a message which was not sent, so that it can be published again.
+     */
+    synchronized void release(String rabbitName, String key) {
+        reserved.remove(entry(rabbitName, key));
+    }
+
+    /**
+     * Keep the key of a published message, written to disk when the method returns, and release its reservation.
+     *
+     * @param windowMs time during which the same key is not published again
+     */
+    synchronized void published(String rabbitName, String key, long windowMs) throws IOException {
+        long expiresAt = clock.getAsLong() + windowMs;
+        String entry = entry(rabbitName, key);
+        reserved.remove(entry);
+        // moved last, as the most recent
+        expiries.remove(entry);
+        expiries.put(entry, expiresAt);
+
+        if (log == null) {
+            throw new IOException("Dedup cache closed");
+        }
+        write(log, expiresAt, rabbitName, key);
+        log.flush();
+        logRecords++;
+
+        if (logRecords > 2 * Math.max(expiries.size(), MAX_ENTRIES / 10)) {
+            compact();
+        }
+    }
+
+    /**
+     * @return number of keys, expired ones included until they are looked up or compacted
+     */
+    synchronized int size() {
+        return expiries.size();
+    }
+
+    synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error while closing dedup cache", e);
+            }
+            log = null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long now = clock.getAsLong();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            while (true) {
+                long expiresAt = in.readLong();
+                String rabbitName = in.readUTF();
+                String key = in.readUTF();
+                String entry = entry(rabbitName, key);
+                expiries.remove(entry);
+                if (expiresAt > now) {
+                    expiries.put(entry, expiresAt);
+                }
+            }
+        } catch (EOFException e) {
+            // end of the log, or record partially written before a crash
+        } catch (UTFDataFormatException e) {
+            LOGGER.warn("Dedup cache corrupted, keys after the first {} ignored", expiries.size(), e);
+        }
+        LOGGER.info("{} published message keys loaded", expiries.size());
+    }
+
+    /**
+     * Rewrite the log with the keys still in their window.
+     */
+    private synchronized void compact() throws IOException {
+        close();
+
+        long now = clock.getAsLong();
+        expiries.values().removeIf(expiresAt -> expiresAt <= now);
+
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (Map.Entry<String, Long> entry : expiries.entrySet()) {
+                int separator = entry.getKey().indexOf('\n');
+                write(out, entry.getValue(), entry.getKey().substring(0, separator),
+                        entry.getKey().substring(separator + 1));
+            }
+        }
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        logRecords = expiries.size();
+    }
+
+    private static void write(DataOutputStream out, long expiresAt, String rabbitName, String key)
+            throws IOException {
+        out.writeLong(expiresAt);
+        out.writeUTF(rabbitName);
+        out.writeUTF(key);
+    }
+
+    // a Rabbit-MQ name is a single line
+    private static String entry(String rabbitName, String key) {
+        return rabbitName + '\n' + key;
+    }
+}
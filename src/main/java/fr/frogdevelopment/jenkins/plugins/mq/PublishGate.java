@@ -0,0 +1,154 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gate in front of the publishes of a Rabbit-MQ config : rate limits in messages and bytes per second (token buckets
+ * allowing a burst of one second), and flow control of the broker, which blocks the connections while one of its
+ * resources is low.<br>
+ * A publish waits for its tokens, or for the broker to unblock the connection, at most the timeout of the config, and
+ * fails past it instead of hanging.<br>
+ * A block notified while the message is being written is bounded by the same timeout, by the write queue of the
+ * connection, see {@link RabbitMqConnections#configure}.<br>
+ * Every publish of the config passes the gate : build steps, pipeline steps, outbox drain and build events.
+ */
+final class PublishGate {
+
+    private final String rabbitName;
+    private final TokenBucket messageBucket;
+    private final TokenBucket byteBucket;
+    private final BlockedPolicy blockedPolicy;
+    private final long timeoutNanos;
+
+    // guarded by this
+    private boolean blocked;
+    private String blockedReason;
+
+    PublishGate(String rabbitName, int maxMessagesPerSecond, long maxBytesPerSecond, BlockedPolicy blockedPolicy,
+                int timeoutSeconds) {
+        this.rabbitName = rabbitName;
+        this.messageBucket = new TokenBucket(maxMessagesPerSecond);
+        this.byteBucket = new TokenBucket(maxBytesPerSecond);
+        this.blockedPolicy = blockedPolicy;
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+    }
+
+    synchronized void blocked(String reason) {
+        blocked = true;
+        blockedReason = reason;
+    }
+
+    synchronized void unblocked() {
+        blocked = false;
+        blockedReason = null;
+        notifyAll();
+    }
+
+    synchronized boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Wait until the messages can be published.
+     *
+     * @param console where the waits are reported, can be <code>null</code>
+     * @throws IllegalStateException if the broker blocks the connection with the {@link BlockedPolicy#FAIL} policy,
+     *                               or if the messages can not be published before the timeout
+     */
+    void acquire(int messages, long bytes, PrintStream console) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        awaitUnblocked(deadline, console);
+
+        long waitNanos = reserve(messages, bytes, deadline - System.nanoTime());
+        if (waitNanos < 0) {
+            throw new IllegalStateException("Rate limit of Rabbit-MQ config " + rabbitName + " exceeded, "
+                    + messages + " message(s) not published after " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos)
+                    + "s");
+        }
+        if (waitNanos > 0) {
+            if (console != null && TimeUnit.NANOSECONDS.toMillis(waitNanos) >= 100) {
+                console.println("Rate limit of Rabbit-MQ config " + rabbitName + " reached, waiting "
+                        + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private synchronized void awaitUnblocked(long deadline, PrintStream console) throws InterruptedException {
+        if (!blocked) {
+            return;
+        }
+        if (blockedPolicy == BlockedPolicy.FAIL) {
+            throw new IllegalStateException("Rabbit-MQ broker of config " + rabbitName + " is blocking publishes : "
+                    + blockedReason);
+        }
+
+        if (console != null) {
+            console.println("Rabbit-MQ broker of config " + rabbitName + " is blocking publishes (" + blockedReason
+                    + "), waiting up to " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s");
+        }
+        long remaining;
+        while (blocked && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (blocked) {
+            throw new IllegalStateException("Rabbit-MQ broker of config " + rabbitName + " still blocking publishes after "
+                    + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s : " + blockedReason);
+        }
+    }
+
+    /**
+     * @return the time to wait before publishing, the tokens being taken, or -1 if longer than the maximum wait
+     */
+    private synchronized long reserve(int messages, long bytes, long maxWaitNanos) {
+        long now = System.nanoTime();
+        long waitNanos = Math.max(messageBucket.waitNanos(messages, now), byteBucket.waitNanos(bytes, now));
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        messageBucket.take(messages);
+        byteBucket.take(bytes);
+        return waitNanos;
+    }
+
+    /**
+     * Tokens refilled at a constant rate, up to one second of tokens. Tokens can be taken in advance, the next
+     * publishes waiting for the debt to be refilled : a message bigger than the bucket is delayed, not refused.
+     */
+    static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        /**
+         * @param perSecond tokens per second, 0 for no limit
+         */
+        TokenBucket(long perSecond) {
+            this.tokensPerNano = perSecond / 1e9;
+            this.capacity = perSecond;
+            this.tokens = perSecond;
+        }
+
+        long waitNanos(long amount, long now) {
+            if (tokensPerNano <= 0) {
+                return 0;
+            }
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+
+            // a single request bigger than the bucket waits for a full bucket
+            double needed = Math.min(amount, capacity);
+            return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / tokensPerNano);
+        }
+
+        void take(long amount) {
+            if (tokensPerNano > 0) {
+                tokens -= amount;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.LatencyHistogram.Snapshot;
+
+/**
+ * Publish metrics of a Rabbit-MQ config and exchange, latencies in milliseconds.<br>
+ * Latencies are measured per publish : one message, or one batch in batch mode.
+ */
+public interface PublishMetricsMXBean {
+
+    long getMessages();
+
+    long getBytes();
+
+    long getFailures();
+
+    int getInFlight();
+
+    Snapshot getRenderLatency();
+
+    Snapshot getConnectLatency();
+
+    Snapshot getSendLatency();
+
+    Snapshot getConfirmLatency();
+}
@@ -0,0 +1,80 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a publish, returned to the pipeline step : the id of the single message sent, whether the broker
+ * confirmed it, or whether it was not sent again as already published, and the outcome of each publish target.
+ * Returned by the agent with the onAgent option.
+ */
+final class PublishResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // null for a batch
+    final String messageId;
+    final int messages;
+    final boolean confirmed;
+    final boolean duplicate;
+    // outcome of each target of a single message, in order, empty for a batch or a duplicate
+    final List<TargetResult> targets;
+
+    private PublishResult(String messageId, int messages, boolean confirmed, boolean duplicate,
+                          List<TargetResult> targets) {
+        this.messageId = messageId;
+        this.messages = messages;
+        this.confirmed = confirmed;
+        this.duplicate = duplicate;
+        this.targets = targets;
+    }
+
+    /**
+     * @param targets outcome of each target, all of them confirmed with confirm
+     */
+    static PublishResult sent(String messageId, boolean confirmed, List<TargetResult> targets) {
+        return new PublishResult(messageId, 1, confirmed, false, new ArrayList<>(targets));
+    }
+
+    static PublishResult batch(int messages, boolean confirmed) {
+        return new PublishResult(null, messages, confirmed, false, Collections.emptyList());
+    }
+
+    static PublishResult duplicate(String key) {
+        return new PublishResult(key, 0, false, true, Collections.emptyList());
+    }
+
+    /**
+     * Outcome of the publish of a message to one target.
+     */
+    static final class TargetResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final boolean confirmed;
+        // time in ms from the send to the confirm, -1 if not confirmed
+        final long latency;
+        // reason the message was not confirmed, null if it was, or sent without confirm
+        final String error;
+
+        private TargetResult(boolean confirmed, long latency, String error) {
+            this.confirmed = confirmed;
+            this.latency = latency;
+            this.error = error;
+        }
+
+        static TargetResult sent() {
+            return new TargetResult(false, -1, null);
+        }
+
+        static TargetResult confirmed(long latency) {
+            return new TargetResult(true, latency, null);
+        }
+
+        static TargetResult failed(String error) {
+            return new TargetResult(false, -1, error);
+        }
+    }
+}
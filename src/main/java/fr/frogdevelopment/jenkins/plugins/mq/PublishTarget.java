@@ -0,0 +1,94 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Exchange and routing key a message is published to. A step publishes its message to its exchange and routing key,
+ * then to each of its additional targets : the message is rendered once and sent to all of them.
+ */
+final class PublishTarget {
+
+    // characters allowed by the broker in an exchange name
+    private static final Pattern EXCHANGE_NAME = Pattern.compile("[a-zA-Z0-9-_.:]+");
+
+    final String exchange;
+    final String routingKey;
+
+    PublishTarget(String exchange, String routingKey) {
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+    }
+
+    /**
+     * @param targets one <code>exchange routingKey</code> target per line, the routing key being optional
+     * @return the main target followed by the additional ones, without duplicates
+     * @throws IllegalArgumentException if a target line has no valid exchange name
+     */
+    static List<PublishTarget> parse(String exchange, String routingKey, String targets) {
+        PublishTarget main = new PublishTarget(exchange, routingKey);
+        List<PublishTarget> additional = parseTargets(targets);
+        if (additional.isEmpty()) {
+            return Collections.singletonList(main);
+        }
+
+        Set<PublishTarget> parsed = new LinkedHashSet<>();
+        parsed.add(main);
+        parsed.addAll(additional);
+        return Collections.unmodifiableList(new ArrayList<>(parsed));
+    }
+
+    /**
+     * @return the target of each line
+     * @throws IllegalArgumentException if a target line has no valid exchange name
+     */
+    static List<PublishTarget> parseTargets(String targets) {
+        if (StringUtils.isBlank(targets)) {
+            return Collections.emptyList();
+        }
+
+        List<PublishTarget> parsed = new ArrayList<>();
+        for (String line : targets.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            // an exchange name can not contain spaces, unlike a routing key
+            String[] parts = line.trim().split("\\s+", 2);
+            if (!EXCHANGE_NAME.matcher(parts[0]).matches()) {
+                throw new IllegalArgumentException("Incorrect target, expected exchange routingKey : " + line);
+            }
+            parsed.add(new PublishTarget(parts[0], parts.length > 1 ? parts[1] : ""));
+        }
+        return parsed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PublishTarget that = (PublishTarget) o;
+        return Objects.equals(exchange, that.exchange)
+                && StringUtils.defaultString(routingKey).equals(StringUtils.defaultString(that.routingKey));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exchange, StringUtils.defaultString(routingKey));
+    }
+
+    @Override
+    public String toString() {
+        return "exchange " + exchange + ", routing key " + StringUtils.defaultString(routingKey);
+    }
+}
@@ -1,37 +1,59 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
-import static org.springframework.amqp.core.MessageBuilder.withBody;
-
+import com.rabbitmq.client.Address;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import fr.frogdevelopment.jenkins.plugins.mq.PublishResult.TargetResult;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqMetrics.PublishMetrics;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
-import hudson.model.Cause;
 import hudson.model.Descriptor;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
@@ -48,22 +70,78 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.CacheMode;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 // cf example https://github.com/jenkinsci/hello-world-plugin
 @SuppressFBWarnings({"WeakerAccess", "RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE"})
-public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
+public class RabbitMqBuilder extends Builder implements SimpleBuildStep, Serializable {
+
+    // sent to the agent with the onAgent option, to build and publish the messages there
+    private static final long serialVersionUID = 1L;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqBuilder.class);
     private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+    // type header set by the JSON message converter
+    private static final String TYPE_ID_HEADER = "__TypeId__";
+    static final int DEFAULT_CONFIRM_TIMEOUT = 10;
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
+    static final int DEFAULT_COMPRESSION_THRESHOLD = 8 * 1024;
+    static final int DEFAULT_LOG_PREVIEW_BYTES = 1024;
+    static final int DEFAULT_DEDUP_WINDOW = 24 * 60;
+    // variable of the idempotency key, set with the hash of the message body
+    static final String PAYLOAD_HASH = "PAYLOAD_HASH";
+    // AMQP short string
+    private static final int MAX_MESSAGE_ID_BYTES = 255;
+
+    // fails the confirms not received in time, without a thread waiting for each of them
+    private static volatile ScheduledThreadPoolExecutor confirmTimer;
 
     private final String rabbitName;
     private final String exchange;
     private String routingKey;
+    private String targets;
     private final String data;
     private boolean toJson;
+    private PayloadType payloadType = PayloadType.ESCAPED_STRING;
+    private PayloadFormat payloadFormat = PayloadFormat.JSON;
+    // kept in line with the payload type, read from the configurations saved before it
+    @Deprecated
     private boolean conversion = true;
+    private boolean confirm;
+    private int confirmTimeout = DEFAULT_CONFIRM_TIMEOUT;
+    private boolean batch;
+    private List<String> payloads;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int batchBytes = DEFAULT_BATCH_BYTES;
+    private boolean outbox;
+    private Compression compression = Compression.NONE;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private String file;
+    private boolean fileSubstitution;
+    private boolean onAgent;
+    private LogMode logMode = LogMode.FULL;
+    private int logPreviewBytes = DEFAULT_LOG_PREVIEW_BYTES;
+    private MessageDeliveryMode deliveryMode = MessageDeliveryMode.PERSISTENT;
+    private String expiration;
+    private int priority;
+    private String contentType;
+    private String messageId;
+    private String headers;
+    private String idempotencyKey;
+    private int dedupWindow = DEFAULT_DEDUP_WINDOW;
+
+    // parsed once from the properties options
+    private transient volatile MessagePropertiesTemplate propertiesTemplate;
+    // parsed once from the exchange, routing key and targets options
+    private transient volatile List<PublishTarget> publishTargets;
 
     @Deprecated
     public RabbitMqBuilder(String rabbitName, String exchange, String routingKey, String data, boolean toJson) {
@@ -96,6 +174,32 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
     @DataBoundSetter
     public void setRoutingKey(String routingKey) {
         this.routingKey = routingKey;
+        this.publishTargets = null;
+    }
+
+    public String getTargets() {
+        return targets;
+    }
+
+    /**
+     * @param targets additional targets of the message, one <code>exchange routingKey</code> per line
+     */
+    @DataBoundSetter
+    public void setTargets(String targets) {
+        this.targets = Util.fixEmptyAndTrim(targets);
+        this.publishTargets = null;
+    }
+
+    /**
+     * @return the exchange and routing key of the step, followed by the additional targets
+     */
+    List<PublishTarget> getPublishTargets() {
+        List<PublishTarget> parsed = publishTargets;
+        if (parsed == null) {
+            parsed = PublishTarget.parse(exchange, routingKey, targets);
+            publishTargets = parsed;
+        }
+        return parsed;
     }
 
     public String getData() {
@@ -111,109 +215,1236 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         this.toJson = toJson;
     }
 
+    public PayloadType getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * @param payloadType how the data, or the file, is written to the message body, escaped string by default
+     */
+    @DataBoundSetter
+    public void setPayloadType(PayloadType payloadType) {
+        this.payloadType = payloadType != null ? payloadType : PayloadType.ESCAPED_STRING;
+        this.conversion = this.payloadType == PayloadType.ESCAPED_STRING;
+    }
+
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat serialization format of the <i>key=value</i> data {@link #isToJson() converted}, JSON by
+     *                      default, a binary format being never escaped
+     */
+    @DataBoundSetter
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat != null ? payloadFormat : PayloadFormat.JSON;
+    }
+
+    /**
+     * @deprecated use {@link #getPayloadType()}
+     */
+    @Deprecated
     public boolean getConversion() {
-        return conversion;
+        return payloadType == PayloadType.ESCAPED_STRING;
     }
 
+    /**
+     * @deprecated use {@link #setPayloadType(PayloadType)}, true being {@link PayloadType#ESCAPED_STRING} and false
+     * {@link PayloadType#TEXT}
+     */
+    @Deprecated
     @DataBoundSetter
     public void setConversion(boolean conversion) {
-        this.conversion = conversion;
+        setPayloadType(PayloadType.of(conversion));
     }
 
-    @Override
-    public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) {
-        listener.getLogger().println("Retrieving parameters");
-        LOGGER.info("Retrieving parameters :");
+    public boolean isConfirm() {
+        return confirm;
+    }
 
-        //noinspection unchecked
-        Map<String, String> buildVariables = build.getBuildVariables();
-        LOGGER.debug("BuildVariables : {}", buildVariables);
+    @DataBoundSetter
+    public void setConfirm(boolean confirm) {
+        this.confirm = confirm;
+    }
 
-        Map<String, String> buildParameters = new HashMap<>(buildVariables);
+    public int getConfirmTimeout() {
+        return confirmTimeout;
+    }
 
-        Cause.UserIdCause userIdCause = (Cause.UserIdCause) build.getCause(Cause.UserIdCause.class);
-        if (userIdCause != null) {
-            buildParameters.put("BUILD_USER_ID", userIdCause.getUserId());
-            buildParameters.put("BUILD_USER_NAME", userIdCause.getUserName());
-        }
+    /**
+     * @param confirmTimeout maximum time in seconds to wait for the broker confirm, when {@link #isConfirm()}
+     */
+    @DataBoundSetter
+    public void setConfirmTimeout(int confirmTimeout) {
+        this.confirmTimeout = confirmTimeout > 0 ? confirmTimeout : DEFAULT_CONFIRM_TIMEOUT;
+    }
 
-        LOGGER.debug("Parameters retrieved : {}", buildParameters);
+    public boolean isBatch() {
+        return batch;
+    }
 
-        EnvVars env = new EnvVars();
-        try {
-            env = build.getEnvironment(listener);
-        } catch (Exception e) {
-            // nothing to do ?
+    /**
+     * @param batch if true, each line of data (or each block separated by an empty line when {@link #isToJson()}),
+     *              or each element of {@link #getPayloads()}, is published as a distinct message
+     */
+    @DataBoundSetter
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
+    public List<String> getPayloads() {
+        return payloads;
+    }
+
+    @DataBoundSetter
+    public void setPayloads(List<String> payloads) {
+        this.payloads = payloads != null ? new ArrayList<>(payloads) : null;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @DataBoundSetter
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    @DataBoundSetter
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes > 0 ? batchBytes : DEFAULT_BATCH_BYTES;
+    }
+
+    public boolean isOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @param outbox if true, the messages are written to the durable outbox and sent in background, so that the build
+     *               does not wait for, nor fail because of, the broker
+     */
+    @DataBoundSetter
+    public void setOutbox(boolean outbox) {
+        this.outbox = outbox;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    @DataBoundSetter
+    public void setCompression(Compression compression) {
+        this.compression = compression != null ? compression : Compression.NONE;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold size in bytes from which the body is compressed, when a {@link #getCompression()
+     *                             compression} is set
+     */
+    @DataBoundSetter
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold >= 0 ? compressionThreshold : DEFAULT_COMPRESSION_THRESHOLD;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @param file path of a file of the workspace sent as the message body in place of the data, can contain
+     *             environment variables
+     */
+    @DataBoundSetter
+    public void setFile(String file) {
+        this.file = Util.fixEmptyAndTrim(file);
+    }
+
+    public boolean isFileSubstitution() {
+        return fileSubstitution;
+    }
+
+    /**
+     * @param fileSubstitution if true, the environment variables and build parameters of the {@link #getFile() file}
+     *                         are resolved, as for the data
+     */
+    @DataBoundSetter
+    public void setFileSubstitution(boolean fileSubstitution) {
+        this.fileSubstitution = fileSubstitution;
+    }
+
+    public boolean isOnAgent() {
+        return onAgent;
+    }
+
+    /**
+     * @param onAgent if true, the messages are built and published by the agent running the build, with its own
+     *                connections to the broker
+     */
+    @DataBoundSetter
+    public void setOnAgent(boolean onAgent) {
+        this.onAgent = onAgent;
+    }
+
+    public LogMode getLogMode() {
+        return logMode;
+    }
+
+    /**
+     * @param logMode how the message is written to the build console and to the logs
+     */
+    @DataBoundSetter
+    public void setLogMode(LogMode logMode) {
+        this.logMode = logMode != null ? logMode : LogMode.FULL;
+    }
+
+    public int getLogPreviewBytes() {
+        return logPreviewBytes;
+    }
+
+    /**
+     * @param logPreviewBytes maximum number of bytes written with the {@link LogMode#PREVIEW} log mode
+     */
+    @DataBoundSetter
+    public void setLogPreviewBytes(int logPreviewBytes) {
+        this.logPreviewBytes = logPreviewBytes >= 0 ? logPreviewBytes : DEFAULT_LOG_PREVIEW_BYTES;
+    }
+
+    public MessageDeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    /**
+     * @param deliveryMode {@link MessageDeliveryMode#NON_PERSISTENT} messages are not written to disk by the broker
+     */
+    @DataBoundSetter
+    public void setDeliveryMode(MessageDeliveryMode deliveryMode) {
+        this.deliveryMode = deliveryMode != null ? deliveryMode : MessageDeliveryMode.PERSISTENT;
+        this.propertiesTemplate = null;
+    }
+
+    public String getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * @param expiration time to live of the message in the queues, in ms, can contain variables
+     */
+    @DataBoundSetter
+    public void setExpiration(String expiration) {
+        this.expiration = Util.fixEmptyAndTrim(expiration);
+        this.propertiesTemplate = null;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param priority priority of the message, from 0 (not set) to 255
+     */
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        this.priority = Math.max(0, Math.min(priority, 255));
+        this.propertiesTemplate = null;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param contentType content type of the message, in place of the one set by the conversion
+     */
+    @DataBoundSetter
+    public void setContentType(String contentType) {
+        this.contentType = Util.fixEmptyAndTrim(contentType);
+        this.propertiesTemplate = null;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @param messageId id of the message, can contain variables
+     */
+    @DataBoundSetter
+    public void setMessageId(String messageId) {
+        this.messageId = Util.fixEmptyAndTrim(messageId);
+        this.propertiesTemplate = null;
+    }
+
+    public String getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param headers one <code>name=value</code> header per line, values can contain variables
+     */
+    @DataBoundSetter
+    public void setHeaders(String headers) {
+        this.headers = Util.fixEmptyAndTrim(headers);
+        this.propertiesTemplate = null;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @param idempotencyKey key identifying the message, used as its id : a message whose key was already published
+     *                       within the {@link #setDedupWindow(int) window} is not sent again. Can contain variables,
+     *                       and <code>${PAYLOAD_HASH}</code> for the SHA-256 of the body
+     */
+    @DataBoundSetter
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = Util.fixEmptyAndTrim(idempotencyKey);
+    }
+
+    public int getDedupWindow() {
+        return dedupWindow;
+    }
+
+    /**
+     * @param dedupWindow minutes during which a message with the same idempotency key is not published again
+     */
+    @DataBoundSetter
+    public void setDedupWindow(int dedupWindow) {
+        this.dedupWindow = dedupWindow > 0 ? dedupWindow : DEFAULT_DEDUP_WINDOW;
+    }
+
+    private MessagePropertiesTemplate getPropertiesTemplate() {
+        MessagePropertiesTemplate template = propertiesTemplate;
+        if (template == null) {
+            template = new MessagePropertiesTemplate(deliveryMode, expiration, priority, contentType, messageId,
+                    headers);
+            propertiesTemplate = template;
         }
+        return template;
+    }
 
-        LOGGER.debug("Environmental variables : {}", env);
+    // default values for builders saved before these options
+    protected Object readResolve() {
+        if (confirmTimeout <= 0) {
+            confirmTimeout = DEFAULT_CONFIRM_TIMEOUT;
+        }
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        if (batchBytes <= 0) {
+            batchBytes = DEFAULT_BATCH_BYTES;
+        }
+        if (compression == null) {
+            compression = Compression.NONE;
+            compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        }
+        if (logMode == null) {
+            logMode = LogMode.FULL;
+            logPreviewBytes = DEFAULT_LOG_PREVIEW_BYTES;
+        }
+        if (deliveryMode == null) {
+            deliveryMode = MessageDeliveryMode.PERSISTENT;
+        }
+        if (payloadType == null) {
+            payloadType = PayloadType.of(conversion);
+        }
+        if (payloadFormat == null) {
+            payloadFormat = PayloadFormat.JSON;
+        }
+        if (dedupWindow <= 0) {
+            dedupWindow = DEFAULT_DEDUP_WINDOW;
+        }
+        return this;
+    }
 
-        return perform(buildParameters, env, listener);
+    @Override
+    public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) {
+        return perform(build.getWorkspace(), BuildVariables.of(build, listener), listener);
     }
 
     @Override
     public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
                         @Nonnull TaskListener listener) {
-        listener.getLogger().println("Retrieving data");
-        LOGGER.info("Retrieving data :");
+        perform(workspace, BuildVariables.of(run, listener), listener);
+    }
+
+    /**
+     * @return names of the variables referenced by the data, the file path or the message properties
+     */
+    Set<String> getVariables() {
+        Set<String> names = new LinkedHashSet<>();
+        for (String template : Arrays.asList(data, file, expiration, messageId, headers)) {
+            if (template != null) {
+                names.addAll(MessageTemplate.compile(template).getVariables());
+            }
+        }
+        if (payloads != null) {
+            payloads.forEach(payload -> names.addAll(MessageTemplate.compile(payload).getVariables()));
+        }
+        if (idempotencyKey != null) {
+            names.addAll(MessageTemplate.compile(idempotencyKey).getVariables());
+            // known once the body is built
+            names.remove(PAYLOAD_HASH);
+        }
+        return names;
+    }
 
-        Map<String, String> buildParameters = new HashMap<>();
-        // FIXME https://jenkins.io/doc/developer/plugin-development/pipeline-integration/
+    /**
+     * Resolve the variables referenced by this step only, or all of them when the variables of the file are
+     * substituted, as they are only known while reading it.
+     *
+     * @return the values of the variables
+     */
+    Map<String, String> resolveVariables(BuildVariables variables) {
+        if (file != null && fileSubstitution) {
+            return variables.resolveAll();
+        }
+        return variables.resolve(getVariables());
+    }
 
-        EnvVars env = new EnvVars();
+    private boolean perform(FilePath workspace, BuildVariables variables, TaskListener listener) {
+        listener.getLogger().println("Retrieving parameters");
+        LOGGER.info("Retrieving parameters :");
 
-        LOGGER.debug("Data retrieved : {}", buildParameters);
+        Map<String, String> buildParameters = resolveVariables(variables);
+        // the data is expanded with the resolved variables only, rather than with the whole environment
+        EnvVars env = new EnvVars(buildParameters);
 
-        perform(buildParameters, env, listener);
+        return perform(workspace, buildParameters, env, listener);
     }
 
-    private boolean perform(@Nonnull Map<String, String> buildParameters, @Nonnull EnvVars env,
+    private boolean perform(FilePath workspace, @Nonnull Map<String, String> buildParameters, @Nonnull EnvVars env,
                             @Nonnull TaskListener listener) {
+        try {
+            publish(workspace, buildParameters, env, listener);
+        } catch (Exception e) {
+            LOGGER.error("Error while sending to Rabbit-MQ", e);
+            listener.getLogger().println("Error while sending to Rabbit-MQ : " + ExceptionUtils.getMessage(e));
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Publish the message(s) as configured, and wait for the result.
+     *
+     * @throws Exception if the message(s) could not be built or sent
+     */
+    PublishResult publish(FilePath workspace, Map<String, String> buildParameters, EnvVars env,
+                          TaskListener listener) throws Exception {
+        return await(publishAsync(workspace, buildParameters, env, listener));
+    }
+
+    /**
+     * Publish the message(s) as configured : to the outbox, from the agent, or from the controller. Shared by the build
+     * step, which waits for the result, and the pipeline step, which completes with it.
+     *
+     * @return completed once the message(s) are sent, or confirmed by the broker : the confirms of a single message
+     * published from the controller are not awaited by the calling thread
+     * @throws Exception if the message(s) could not be built or sent
+     */
+    CompletableFuture<PublishResult> publishAsync(FilePath workspace, Map<String, String> buildParameters, EnvVars env,
+                                                  TaskListener listener) throws Exception {
         PrintStream console = listener.getLogger();
+        PublishMetrics metrics = RabbitMqMetrics.publish(rabbitName, exchange);
 
         try {
+            // only opened when used
+            PublishDedupCache dedup = idempotencyKey != null ? getDescriptor().getDedupCache() : null;
+
+            if (outbox) {
+                return CompletableFuture.completedFuture(
+                        spool(getDescriptor().getOutbox(), dedup, workspace, buildParameters, env, console));
+            }
+
             console.println("Initialisation Rabbit-MQ");
             // INIT RABBIT-MQ
-            RabbitConfig rabbitConfig = getDescriptor().getRabbitConfig(rabbitName);
+            RabbitConfig rabbitConfig = getDescriptor().requireRabbitConfig(rabbitName);
 
-            if (rabbitConfig == null) {
-                throw new IllegalArgumentException("Unknown rabbit config : " + rabbitName);
+            if (onAgent && workspace != null && workspace.isRemote()) {
+                return CompletableFuture.completedFuture(
+                        publishFromAgent(rabbitConfig, dedup, workspace, buildParameters, env, listener));
             }
 
+            // fail after a strict probe rather than after the connect timeout
+            BrokerHealthProbe.checkAvailable(rabbitConfig, getDescriptor().getConnections());
+
+            long start = System.nanoTime();
+            RabbitTemplate rabbitTemplate = getDescriptor().getConnections().getRabbitTemplate(rabbitConfig);
+            metrics.connect.recordSince(start);
+
+            return publishAsync(rabbitTemplate, getDescriptor().getConnections().getPublishGate(rabbitConfig), dedup,
+                    workspace, buildParameters, env, console)
+                    .whenComplete((result, failure) -> {
+                        if (failure != null) {
+                            metrics.failed();
+                        }
+                    });
+        } catch (Exception e) {
+            metrics.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * Build and publish the message(s) on the agent. The dedup cache is on the controller : the idempotency key,
+     * which can not depend on the body, is reserved here before sending, and kept once the agent published it.
+     */
+    private PublishResult publishFromAgent(RabbitConfig rabbitConfig, PublishDedupCache dedup, FilePath workspace,
+                                           Map<String, String> buildParameters, EnvVars env, TaskListener listener)
+            throws Exception {
+        PrintStream console = listener.getLogger();
+        String key = null;
+        if (dedup != null) {
+            if (MessageTemplate.compile(idempotencyKey).getVariables().contains(PAYLOAD_HASH)) {
+                throw new IllegalArgumentException(
+                        "Incorrect idempotency key, ${" + PAYLOAD_HASH + "} can not be used from the agent");
+            }
+            key = renderIdempotencyKey(buildParameters);
+            if (!dedup.tryReserve(rabbitName, key)) {
+                console.println("Message " + key + " already published, not sent again");
+                return PublishResult.duplicate(key);
+            }
+        }
+
+        console.println("Publishing from agent");
+        boolean sent = false;
+        try {
+            PublishResult result = workspace.act(new AgentPublisher(this, rabbitConfig.forAgent(),
+                    workspace.getRemote(), buildParameters, env, listener));
+            if (key != null) {
+                markPublished(dedup, Collections.singletonList(key), console);
+            }
+            sent = true;
+            return result;
+        } finally {
+            if (!sent && key != null) {
+                release(dedup, Collections.singletonList(key));
+            }
+        }
+    }
+
+    /**
+     * Build the message(s) from the data, or the file of the workspace, send them with the given template, and wait
+     * for the result.
+     *
+     * @param dedup keys of the messages already published, <code>null</code> to publish them all
+     */
+    PublishResult publish(RabbitTemplate rabbitTemplate, PublishGate gate, PublishDedupCache dedup, FilePath workspace,
+                          Map<String, String> buildParameters, EnvVars env, PrintStream console)
+            throws IOException, InterruptedException, ExecutionException {
+        return await(publishAsync(rabbitTemplate, gate, dedup, workspace, buildParameters, env, console));
+    }
+
+    /**
+     * Build the message(s) from the data, or the file of the workspace, and send them with the given template. The
+     * confirms of a single message complete the result from the broker callback, or when the confirm timeout elapses.
+     *
+     * @param dedup keys of the messages already published, <code>null</code> to publish them all
+     * @return completed once the message(s) are sent, or confirmed with {@link #isConfirm()}
+     */
+    CompletableFuture<PublishResult> publishAsync(RabbitTemplate rabbitTemplate, PublishGate gate,
+                                                  PublishDedupCache dedup, FilePath workspace,
+                                                  Map<String, String> buildParameters, EnvVars env,
+                                                  PrintStream console)
+            throws IOException, InterruptedException, ExecutionException {
+        if (batch && file == null) {
+            return CompletableFuture.completedFuture(
+                    publishBatch(rabbitTemplate, gate, dedup, buildParameters, env, console));
+        }
+
+        PublishMetrics metrics = RabbitMqMetrics.publish(rabbitName, exchange);
+
+        console.println("Building message");
+
+        long start = System.nanoTime();
+        Message message = buildMessage(workspace, buildParameters, env, console);
+        String key = applyIdempotencyKey(message, buildParameters);
+        if (key != null && dedup != null && !dedup.tryReserve(rabbitName, key)) {
+            console.println("Message " + key + " already published, not sent again");
+            return CompletableFuture.completedFuture(PublishResult.duplicate(key));
+        }
+
+        // the key is released if the message is not sent, then once sent if it is not confirmed
+        boolean sent = false;
+        try {
+            if (message.getMessageProperties().getMessageId() == null) {
+                message.getMessageProperties().setMessageId(UUID.randomUUID().toString());
+            }
+            Message payload = compress(Collections.singletonList(message), console).get(0);
+            metrics.render.recordSince(start);
+            if (logMode != LogMode.NONE) {
+                String title;
+                MessageLog log;
+                if (file != null) {
+                    title = "Sending file " + file + " as message:";
+                    // the content of a file is never logged in full, it may be large
+                    log = log(logMode == LogMode.FULL ? LogMode.PREVIEW : logMode, message.getBody());
+                } else if (payloadType == PayloadType.BINARY) {
+                    title = "Sending binary message:";
+                    // bytes are not readable in the console
+                    log = new MessageLog(logMode == LogMode.FULL ? LogMode.HASH : logMode, message.getBody(),
+                            logPreviewBytes);
+                } else if (isBinaryFormat()) {
+                    title = "Sending message as " + payloadFormat + ":";
+                    log = new MessageLog(logMode == LogMode.FULL ? LogMode.HASH : logMode, message.getBody(),
+                            logPreviewBytes);
+                } else {
+                    title = toJson ? "Sending message as JSON:" : "Sending raw message:";
+                    log = log(logMode, message.getBody());
+                }
+                LOGGER.debug("{}\n{}", title, log);
+                console.println(title);
+                log.writeTo(console);
+            }
+
+            List<PublishTarget> publishTargets = getPublishTargets();
+            int count = publishTargets.size();
+            long size = payload.getBody().length;
+
+            console.println(count > 1 ? "Sending message to " + count + " targets" : "Sending message");
+
+            if (gate != null) {
+                gate.acquire(count, size * count, console);
+            }
+
+            String messageId = payload.getMessageProperties().getMessageId();
+            CompletableFuture<PublishResult> published;
+            metrics.sending(count);
+            try {
+                // only this message's confirms are awaited, other publishes on the channel stay in flight
+                start = System.nanoTime();
+                List<CorrelationData> correlations = send(rabbitTemplate, payload,
+                        confirm ? () -> new CorrelationData(UUID.randomUUID().toString()) : null);
+                long sendEnd = metrics.send.recordSince(start);
+
+                if (confirm) {
+                    console.println("Message sent, waiting for confirm");
+                    published = confirms(correlations, sendEnd).thenApply(results -> {
+                        metrics.confirm.recordSince(sendEnd);
+                        long confirmed = results.stream().filter(result -> result.confirmed).count();
+                        metrics.sent((int) confirmed, size * confirmed);
+                        reportConfirms(publishTargets, results, console);
+                        return PublishResult.sent(messageId, true, results);
+                    });
+                } else {
+                    if (count > 1) {
+                        publishTargets.forEach(target -> console.println("Message sent to " + target));
+                    } else {
+                        console.println("Message sent");
+                    }
+                    metrics.sent(count, size * count);
+                    published = CompletableFuture.completedFuture(PublishResult.sent(messageId, false,
+                            Collections.nCopies(count, TargetResult.sent())));
+                }
+            } catch (RuntimeException e) {
+                metrics.settled(count);
+                throw e;
+            }
+            sent = true;
+
+            return published.whenComplete((result, failure) -> {
+                metrics.settled(count);
+                if (key == null) {
+                    return;
+                }
+                if (failure == null) {
+                    markPublished(dedup, Collections.singletonList(key), console);
+                } else {
+                    release(dedup, Collections.singletonList(key));
+                }
+            });
+        } finally {
+            if (!sent && key != null) {
+                release(dedup, Collections.singletonList(key));
+            }
+        }
+    }
+
+    // a body written as a JSON string is logged as the text rendered before being escaped
+    private MessageLog log(LogMode mode, byte[] body) {
+        if (payloadType == PayloadType.ESCAPED_STRING) {
+            return MessageLog.ofJsonString(mode, body, logPreviewBytes);
+        }
+        return new MessageLog(mode, body, logPreviewBytes);
+    }
+
+    /**
+     * Send the message to each target, the publishes following each other on the same channel when there are
+     * several targets.
+     *
+     * @param correlations supplier of the correlation data of each publish, <code>null</code> without confirm
+     * @return the correlation data of each target, in order
+     */
+    List<CorrelationData> send(RabbitTemplate rabbitTemplate, Message message,
+                               Supplier<CorrelationData> correlations) {
+        List<PublishTarget> publishTargets = getPublishTargets();
+        if (publishTargets.size() == 1) {
+            CorrelationData correlationData = correlations != null ? correlations.get() : null;
+            send(rabbitTemplate, publishTargets.get(0), message, correlationData);
+            return Collections.singletonList(correlationData);
+        }
+
+        return rabbitTemplate.invoke(operations -> {
+            List<CorrelationData> sent = new ArrayList<>(publishTargets.size());
+            for (PublishTarget target : publishTargets) {
+                CorrelationData correlationData = correlations != null ? correlations.get() : null;
+                send(operations, target, message, correlationData);
+                sent.add(correlationData);
+            }
+            return sent;
+        });
+    }
+
+    /**
+     * Wait for the confirm of each target, within the confirm timeout counted from now, without blocking a thread.
+     *
+     * @param since time in ns the message was sent
+     * @return completed with the outcome of each target, in order
+     */
+    private CompletableFuture<List<TargetResult>> confirms(List<CorrelationData> correlations, long since) {
+        List<CompletableFuture<TargetResult>> outcomes = new ArrayList<>(correlations.size());
+        for (CorrelationData correlationData : correlations) {
+            CompletableFuture<TargetResult> outcome = new CompletableFuture<>();
+            ScheduledFuture<?> timeout = confirmTimer().schedule(() -> outcome.complete(
+                    TargetResult.failed("No confirm received from broker after " + confirmTimeout + "s")),
+                    confirmTimeout, TimeUnit.SECONDS);
+            correlationData.getFuture().addCallback(
+                    confirmation -> outcome.complete(confirmation != null && confirmation.isAck()
+                            ? TargetResult.confirmed(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since))
+                            : TargetResult.failed("Message rejected by broker : "
+                            + (confirmation != null ? confirmation.getReason() : null))),
+                    failure -> outcome.complete(TargetResult.failed(ExceptionUtils.getMessage(failure))));
+            outcome.thenRun(() -> timeout.cancel(false));
+            outcomes.add(outcome);
+        }
+
+        return CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> outcomes.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * Report the confirm of each target.
+     *
+     * @throws IllegalStateException with the targets which did not confirm the message
+     */
+    private static void reportConfirms(List<PublishTarget> publishTargets, List<TargetResult> results,
+                                      PrintStream console) {
+        if (publishTargets.size() == 1) {
+            if (!results.get(0).confirmed) {
+                throw new IllegalStateException(results.get(0).error);
+            }
+            console.println("Message confirmed");
+            return;
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < publishTargets.size(); i++) {
+            PublishTarget target = publishTargets.get(i);
+            TargetResult result = results.get(i);
+            if (result.confirmed) {
+                console.println("Message confirmed for " + target);
+            } else {
+                console.println("Message not confirmed for " + target + " : " + result.error);
+                failures.add(target + " : " + result.error);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Message not confirmed for " + failures.size() + " of "
+                    + publishTargets.size() + " targets, " + String.join(" ; ", failures));
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor confirmTimer() {
+        if (confirmTimer == null) {
+            synchronized (RabbitMqBuilder.class) {
+                if (confirmTimer == null) {
+                    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                            new NamingThreadFactory(new DaemonThreadFactory(), "RabbitMqConfirmTimeout"));
+                    // most confirms arrive in time
+                    timer.setRemoveOnCancelPolicy(true);
+                    confirmTimer = timer;
+                }
+            }
+        }
+        return confirmTimer;
+    }
+
+    /**
+     * Wait for the result of a publish.
+     *
+     * @throws ExecutionException if the publish failed with a checked exception, else the failure itself, as thrown
+     *                            when sending
+     */
+    static <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the failure of a publish, without the wrapper of a dependent stage
+     */
+    static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * Build the message(s) from the data and append them to the outbox, to be sent in background.
+     */
+    private PublishResult spool(RabbitMqOutbox rabbitMqOutbox, PublishDedupCache dedup, FilePath workspace,
+                                Map<String, String> buildParameters, EnvVars env, PrintStream console)
+            throws IOException, InterruptedException {
+        boolean single = !batch || file != null;
+        List<Message> built;
+        if (single) {
             console.println("Building message");
+            built = Collections.singletonList(buildMessage(workspace, buildParameters, env, console));
+        } else {
+            console.println("Building messages");
+            built = buildMessages(buildParameters, env);
+        }
+        List<Message> unpublished = withoutDuplicates(built, buildParameters, dedup, console);
+        if (single && unpublished.isEmpty()) {
+            return PublishResult.duplicate(built.get(0).getMessageProperties().getMessageId());
+        }
+
+        // the keys are released if the messages are not spooled
+        List<String> keys = messageIds(unpublished);
+        List<Message> messages;
+        boolean spooled = false;
+        try {
+            messages = compress(unpublished, console);
+            for (Message message : messages) {
+                if (message.getMessageProperties().getMessageId() == null) {
+                    message.getMessageProperties().setMessageId(UUID.randomUUID().toString());
+                }
+                for (PublishTarget target : getPublishTargets()) {
+                    rabbitMqOutbox.append(rabbitName, target.exchange, target.routingKey, message);
+                }
+            }
+
+            // the outbox sends them, even after a restart
+            markPublished(dedup, keys, console);
+            spooled = true;
+        } finally {
+            if (!spooled) {
+                release(dedup, keys);
+            }
+        }
+
+        console.println(messages.size() + " message(s) spooled to outbox");
 
-            String expandedData = env.expand(data);
-            String message;
-            if (toJson) {
-                message = Utils.getJsonMessage(buildParameters, expandedData);
-                LOGGER.info("Sending message as JSON:\n{}", message);
-                console.println("Sending message as JSON:\n" + message);
+        return single
+                ? PublishResult.sent(messages.get(0).getMessageProperties().getMessageId(), false,
+                Collections.nCopies(getPublishTargets().size(), TargetResult.sent()))
+                : PublishResult.batch(messages.size(), false);
+    }
+
+    private PublishResult publishBatch(RabbitTemplate rabbitTemplate, PublishGate gate, PublishDedupCache dedup,
+                              Map<String, String> buildParameters, EnvVars env, PrintStream console)
+            throws InterruptedException, ExecutionException {
+        PublishMetrics metrics = RabbitMqMetrics.publish(rabbitName, exchange);
+
+        console.println("Building messages");
+
+        long renderStart = System.nanoTime();
+        List<Message> unpublished = withoutDuplicates(buildMessages(buildParameters, env), buildParameters, dedup,
+                console);
+        // the keys of the batches not sent are released
+        List<String> keys = messageIds(unpublished);
+        int from = 0;
+        try {
+            List<Message> messages = compress(unpublished, console);
+            metrics.render.recordSince(renderStart);
+
+            List<PublishTarget> publishTargets = getPublishTargets();
+            if (publishTargets.size() > 1) {
+                console.println("Sending " + messages.size() + " messages to " + publishTargets.size()
+                        + " targets");
             } else {
-                message = Utils.getRawMessage(buildParameters, expandedData);
-                LOGGER.info("Sending raw message:\n{}", message);
-                console.println("Sending raw message:\n" + message);
+                console.println("Sending " + messages.size() + " messages");
+            }
+
+            int batchNumber = 0;
+            while (from < messages.size()) {
+                // fill the batch up to its size or bytes limit, with at least one message
+                int to = from;
+                long bytes = 0;
+                do {
+                    bytes += messages.get(to).getBody().length;
+                    to++;
+                } while (to < messages.size() && to - from < batchSize
+                        && bytes + messages.get(to).getBody().length <= batchBytes);
+
+                List<Message> batchMessages = messages.subList(from, to);
+                // each message of the batch is sent to every target
+                int publishes = batchMessages.size() * publishTargets.size();
+
+                if (gate != null) {
+                    gate.acquire(publishes, bytes * publishTargets.size(), console);
+                }
+
+                long start = System.nanoTime();
+                metrics.sending(publishes);
+                try {
+                    List<CorrelationData> correlations = rabbitTemplate.invoke(operations -> {
+                        // all the messages of a batch are published on the same channel
+                        List<CorrelationData> sent = new ArrayList<>(publishes);
+                        for (Message message : batchMessages) {
+                            for (PublishTarget target : publishTargets) {
+                                CorrelationData correlationData = confirm
+                                        ? new CorrelationData(UUID.randomUUID().toString())
+                                        : null;
+                                send(operations, target, message, correlationData);
+                                sent.add(correlationData);
+                            }
+                        }
+                        return sent;
+                    });
+                    long sendEnd = metrics.send.recordSince(start);
+
+                    if (confirm && correlations != null) {
+                        for (CorrelationData correlationData : correlations) {
+                            waitForConfirm(correlationData, sendEnd);
+                        }
+                        metrics.confirm.recordSince(sendEnd);
+                    }
+                    metrics.sent(publishes, bytes * publishTargets.size());
+                } finally {
+                    metrics.settled(publishes);
+                }
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                batchNumber++;
+                console.println(String.format("Batch %d : %d messages, %d bytes, %s in %d ms", batchNumber,
+                        batchMessages.size(), bytes, confirm ? "confirmed" : "sent", elapsed));
+
+                if (idempotencyKey != null) {
+                    markPublished(dedup, messageIds(batchMessages), console);
+                }
+
+                from = to;
+            }
+
+            console.println(messages.size() + " messages sent in " + batchNumber + " batches");
+
+            return PublishResult.batch(messages.size(), confirm);
+        } finally {
+            if (from < keys.size()) {
+                release(dedup, keys.subList(from, keys.size()));
+            }
+        }
+    }
+
+    /**
+     * Build one message per record of the batch : the {@link #getPayloads() payloads}, or the records of the data.
+     */
+    private List<Message> buildMessages(Map<String, String> buildParameters, EnvVars env) {
+        // the data is split before being rendered, so that each record is compiled once whatever the variables
+        List<String> records;
+        if (payloads != null) {
+            records = payloads;
+        } else if (toJson && payloadType != PayloadType.BINARY) {
+            records = Arrays.asList(data.split("\\r?\\n\\s*\\r?\\n"));
+        } else {
+            records = Arrays.asList(data.split("\\r?\\n"));
+        }
+
+        Map<String, String> variables = variables(buildParameters, env);
+
+        MessagePropertiesTemplate template = getPropertiesTemplate();
+        List<Message> messages = new ArrayList<>(records.size());
+        for (String record : records) {
+            if (StringUtils.isBlank(record)) {
+                continue;
             }
 
-            console.println("Sending message");
+            Message message = buildMessage(variables, record);
+            template.applyTo(message.getMessageProperties(), variables);
+            messages.add(message);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Build the single message : from the {@link #getFile() file} if any, else from the data, with its properties.
+     */
+    Message buildMessage(FilePath workspace, Map<String, String> buildParameters, EnvVars env, PrintStream console)
+            throws IOException, InterruptedException {
+        Map<String, String> variables = variables(buildParameters, env);
+        Message message = file != null
+                ? readFile(workspace, variables, console)
+                : buildMessage(variables, data);
+        getPropertiesTemplate().applyTo(message.getMessageProperties(), variables);
+        return message;
+    }
+
+    private Message readFile(FilePath workspace, Map<String, String> variables, PrintStream console)
+            throws IOException, InterruptedException {
+        if (workspace == null) {
+            throw new IllegalStateException("No workspace to read the file " + file + " from");
+        }
+        FilePath source = workspace.child(MessageTemplate.compile(file).render(variables));
+        if (!source.exists()) {
+            throw new IllegalArgumentException("File not found in workspace : " + source.getRemote());
+        }
+
+        // the bytes of a binary file are sent as they are
+        boolean substitution = fileSubstitution && payloadType != PayloadType.BINARY;
+
+        byte[] body;
+        try (InputStream in = source.read()) {
+            body = FilePayload.read(in, source.length(), payloadType == PayloadType.ESCAPED_STRING,
+                    substitution ? variables : null);
+        }
+        console.println(String.format("Reading file %s : %d bytes", source.getRemote(), body.length));
+
+        return new Message(body, messageProperties(body.length));
+    }
+
+    /**
+     * Set the idempotency key as the id of the message, rendered with the variables and the hash of the body, before
+     * compression.
+     *
+     * @return the key, or <code>null</code> without idempotency key
+     * @throws IllegalArgumentException if the key is too long for a message id
+     */
+    String applyIdempotencyKey(Message message, Map<String, String> buildParameters) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+
+        Map<String, String> parameters = buildParameters;
+        if (MessageTemplate.compile(idempotencyKey).getVariables().contains(PAYLOAD_HASH)) {
+            parameters = new HashMap<>(buildParameters);
+            parameters.put(PAYLOAD_HASH, Utils.sha256(message.getBody()));
+        }
 
-            CachingConnectionFactory factory = RabbitMqFactory.getCachingConnectionFactory(rabbitConfig);
-            RabbitTemplate rabbitTemplate = RabbitMqFactory.getRabbitTemplate(factory);
-            if (conversion) {
-                rabbitTemplate.convertAndSend(exchange, routingKey, message);
+        String key = renderIdempotencyKey(parameters);
+        message.getMessageProperties().setMessageId(key);
+        return key;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key is too long for a message id
+     */
+    private String renderIdempotencyKey(Map<String, String> parameters) {
+        String key = MessageTemplate.compile(idempotencyKey).render(parameters);
+        if (key.getBytes(DEFAULT_CHARSET).length > MAX_MESSAGE_ID_BYTES) {
+            throw new IllegalArgumentException(
+                    "Incorrect idempotency key, longer than " + MAX_MESSAGE_ID_BYTES + " bytes : " + key);
+        }
+        return key;
+    }
+
+    /**
+     * Set the idempotency key of each message, and leave out the messages already published or being sent, or with
+     * the same key than a previous message. The keys of the messages kept are reserved, until published or released.
+     */
+    private List<Message> withoutDuplicates(List<Message> messages, Map<String, String> buildParameters,
+                                            PublishDedupCache dedup, PrintStream console) {
+        if (idempotencyKey == null) {
+            return messages;
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        List<Message> unpublished = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String key = applyIdempotencyKey(message, buildParameters);
+            if (!keys.add(key) || dedup != null && !dedup.tryReserve(rabbitName, key)) {
+                console.println("Message " + key + " already published, not sent again");
             } else {
-                rabbitTemplate.send(exchange, routingKey, withBody(message.getBytes(DEFAULT_CHARSET)).build());
+                unpublished.add(message);
             }
-            factory.destroy();
+        }
+        return unpublished;
+    }
 
-            console.println("Connection destroyed");
-        } catch (Exception e) {
-            LOGGER.error("Error while sending to Rabbit-MQ", e);
-            console.println("Error while sending to Rabbit-MQ : " + ExceptionUtils.getMessage(e));
+    private static List<String> messageIds(List<Message> messages) {
+        return messages.stream().map(message -> message.getMessageProperties().getMessageId())
+                .collect(Collectors.toList());
+    }
 
-            return false;
+    /**
+     * Keep the keys of the published messages for the dedup window. A message is published even if its key can
+     * not be saved.
+     */
+    void markPublished(PublishDedupCache dedup, List<String> keys, PrintStream console) {
+        if (dedup == null || keys.isEmpty()) {
+            return;
         }
 
-        return true;
+        try {
+            for (String key : keys) {
+                dedup.published(rabbitName, key, TimeUnit.MINUTES.toMillis(dedupWindow));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save the idempotency keys", e);
+            console.println("Unable to save the idempotency keys : " + ExceptionUtils.getMessage(e));
+        }
+    }
+
+    /**
+     * Release the keys of the messages not sent, so that a retry publishes them.
+     */
+    private void release(PublishDedupCache dedup, List<String> keys) {
+        if (dedup == null) {
+            return;
+        }
+
+        for (String key : keys) {
+            dedup.release(rabbitName, key);
+        }
+    }
+
+    /**
+     * Compress the bodies above the {@link #getCompressionThreshold() threshold}, and print the compression ratio.
+     */
+    List<Message> compress(List<Message> messages, PrintStream console) {
+        if (compression == Compression.NONE) {
+            return messages;
+        }
+
+        List<Message> compressed = new ArrayList<>(messages.size());
+        int count = 0;
+        long originalBytes = 0;
+        long compressedBytes = 0;
+        for (Message message : messages) {
+            byte[] body = message.getBody();
+            if (body.length < compressionThreshold) {
+                compressed.add(message);
+                continue;
+            }
+
+            byte[] compressedBody = PayloadCompressor.compress(compression, body);
+            MessageProperties properties = message.getMessageProperties();
+            properties.setContentEncoding(compression.contentEncoding(properties.getContentEncoding()));
+            properties.setContentLength(compressedBody.length);
+            compressed.add(new Message(compressedBody, properties));
+
+            count++;
+            originalBytes += body.length;
+            compressedBytes += compressedBody.length;
+        }
+
+        if (count > 0) {
+            console.println(String.format("%d message(s) compressed with %s : %d -> %d bytes (%.1f%%)", count,
+                    compression, originalBytes, compressedBytes, 100d * compressedBytes / originalBytes));
+        }
+
+        return compressed;
+    }
+
+    /**
+     * Build parameters and environment variables resolved by the templates, the environment variables winning as when
+     * the data was expanded before the build parameters were resolved.
+     */
+    static Map<String, String> variables(Map<String, String> buildParameters, EnvVars env) {
+        if (buildParameters.keySet().containsAll(env.keySet())) {
+            // the environment of a build is made of its parameters
+            return buildParameters;
+        }
+        Map<String, String> variables = new HashMap<>(buildParameters);
+        variables.putAll(env);
+        return variables;
+    }
+
+    /**
+     * Render the data straight to the message body, its compiled template being cached by its raw text whatever the
+     * variables. As {@link PayloadType#ESCAPED_STRING}, the body is written as a JSON string, with the same content
+     * and properties than the JSON message converter would produce, and as {@link PayloadType#BINARY}, the decoded
+     * bytes are the body.
+     */
+    Message buildMessage(Map<String, String> variables, String data) {
+        byte[] body;
+        if (payloadType == PayloadType.BINARY) {
+            body = Utils.getBinaryPayload(variables, data);
+        } else if (toJson) {
+            body = Utils.getStructuredPayload(variables, data, payloadFormat,
+                    payloadType == PayloadType.ESCAPED_STRING);
+        } else {
+            body = Utils.getRawPayload(variables, data, payloadType == PayloadType.ESCAPED_STRING);
+        }
+
+        MessageProperties properties = messageProperties(body.length);
+        if (isBinaryFormat()) {
+            properties.setContentType(payloadFormat.getContentType());
+            properties.setContentEncoding(null);
+            properties.getHeaders().remove(TYPE_ID_HEADER);
+        }
+        return new Message(body, properties);
+    }
+
+    // data converted to a binary structured format
+    private boolean isBinaryFormat() {
+        return toJson && payloadFormat != PayloadFormat.JSON && payloadType != PayloadType.BINARY;
+    }
+
+    private MessageProperties messageProperties(int length) {
+        MessageProperties properties = new MessageProperties();
+        if (payloadType == PayloadType.BINARY) {
+            properties.setContentType(MessageProperties.CONTENT_TYPE_BYTES);
+        } else if (payloadType == PayloadType.ESCAPED_STRING) {
+            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            properties.setContentEncoding(DEFAULT_CHARSET.name());
+            properties.setHeader(TYPE_ID_HEADER, String.class.getName());
+        } else if (toJson) {
+            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            properties.setContentEncoding(DEFAULT_CHARSET.name());
+        }
+        properties.setContentLength(length);
+
+        return properties;
+    }
+
+    private static void send(RabbitOperations rabbitOperations, PublishTarget target, Message message,
+                             CorrelationData correlationData) {
+        if (correlationData != null) {
+            rabbitOperations.send(target.exchange, target.routingKey, message, correlationData);
+        } else {
+            rabbitOperations.send(target.exchange, target.routingKey, message);
+        }
+    }
+
+    /**
+     * @param since start of the confirm timeout, in {@link System#nanoTime()}, shared by the publishes sent together
+     */
+    private void waitForConfirm(CorrelationData correlationData, long since)
+            throws InterruptedException, ExecutionException {
+        long remaining = TimeUnit.SECONDS.toNanos(confirmTimeout) - (System.nanoTime() - since);
+        Confirm confirmation;
+        try {
+            confirmation = correlationData.getFuture().get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("No confirm received from broker after " + confirmTimeout + "s");
+        }
+
+        if (!confirmation.isAck()) {
+            throw new IllegalStateException("Message rejected by broker : " + confirmation.getReason());
+        }
     }
 
     @Override
@@ -227,10 +1458,52 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
         private Configs configs;
 
+        private final transient RabbitMqConnections connections = new RabbitMqConnections();
+
+        // read without lock by the builds, replaced as a whole when the configs change
+        private transient volatile Map<String, RabbitConfig> rabbitConfigsByName = Collections.emptyMap();
+
+        private transient RabbitMqOutbox outbox;
+        private transient PublishDedupCache dedupCache;
+
         public RabbitMqDescriptor() {
             load();
         }
 
+        @Override
+        public synchronized void load() {
+            super.load();
+            index();
+        }
+
+        /**
+         * Resume the drain of messages left in the outbox by the previous run.
+         */
+        @Initializer(after = InitMilestone.JOB_LOADED)
+        public static void startOutbox() throws IOException {
+            RabbitMqDescriptor descriptor = Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+            if (descriptor != null && getOutboxDirectory().isDirectory()) {
+                descriptor.getOutbox();
+            }
+        }
+
+        @Terminator
+        public static void shutdownConnections() {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins != null) {
+                RabbitMqDescriptor descriptor = jenkins.getDescriptorByType(RabbitMqDescriptor.class);
+                if (descriptor != null) {
+                    descriptor.stopOutbox();
+                    descriptor.closeDedupCache();
+                    descriptor.connections.shutdown();
+                }
+            }
+        }
+
+        private static File getOutboxDirectory() {
+            return new File(Jenkins.get().getRootDir(), "rabbitmq-publisher/outbox");
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> jobType) {
             return true;
@@ -245,6 +1518,8 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         @Override
         public boolean configure(StaplerRequest req, JSONObject json) {
             this.configs = Configs.fromJSON(json);
+            index();
+            connections.retain(configs != null ? configs.getRabbitConfigs() : null);
 
             save();
 
@@ -257,19 +1532,100 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
         public void setConfigs(Configs configs) {
             this.configs = configs;
+            index();
+            connections.retain(configs != null ? configs.getRabbitConfigs() : null);
+        }
+
+        private void index() {
+            Map<String, RabbitConfig> byName = new HashMap<>();
+            if (configs != null) {
+                // first config wins, as with the previous linear lookup
+                configs.getRabbitConfigs().forEach(rc -> byName.putIfAbsent(rc.getName(), rc));
+            }
+            rabbitConfigsByName = Collections.unmodifiableMap(byName);
+        }
+
+        RabbitMqConnections getConnections() {
+            return connections;
+        }
+
+        /**
+         * @return the outbox, opened and drained in background on first use
+         */
+        synchronized RabbitMqOutbox getOutbox() throws IOException {
+            if (outbox == null) {
+                outbox = new RabbitMqOutbox(getOutboxDirectory(), new RabbitMqOutbox.Templates() {
+                    @Override
+                    public RabbitTemplate get(String rabbitName) throws GeneralSecurityException {
+                        RabbitConfig rabbitConfig = getRabbitConfig(rabbitName);
+                        return rabbitConfig != null ? connections.getRabbitTemplate(rabbitConfig) : null;
+                    }
+
+                    @Override
+                    public PublishGate gate(String rabbitName) throws GeneralSecurityException {
+                        RabbitConfig rabbitConfig = getRabbitConfig(rabbitName);
+                        return rabbitConfig != null ? connections.getPublishGate(rabbitConfig) : null;
+                    }
+                });
+                outbox.start();
+            }
+            return outbox;
+        }
+
+        /**
+         * @return the keys of the messages recently published, loaded on first use
+         */
+        synchronized PublishDedupCache getDedupCache() throws IOException {
+            if (dedupCache == null) {
+                dedupCache = new PublishDedupCache(new File(Jenkins.get().getRootDir(), "rabbitmq-publisher/dedup.log"));
+            }
+            return dedupCache;
+        }
+
+        private synchronized void closeDedupCache() {
+            if (dedupCache != null) {
+                dedupCache.close();
+                dedupCache = null;
+            }
         }
 
-        private RabbitConfig getRabbitConfig(String configName) {
-            return configs.getRabbitConfigs()
-                    .stream()
-                    .filter(rc -> rc.getName().equals(configName))
-                    .findFirst()
-                    .orElse(null);
+        private synchronized void stopOutbox() {
+            if (outbox != null) {
+                outbox.stop();
+                outbox = null;
+            }
+        }
+
+        /**
+         * @return the config with this name, or <code>null</code> if unknown
+         */
+        RabbitConfig getRabbitConfig(String configName) {
+            return configName != null ? rabbitConfigsByName.get(configName) : null;
+        }
+
+        /**
+         * @return the config with this name
+         * @throws IllegalStateException    if no config is defined
+         * @throws IllegalArgumentException if the config is unknown
+         */
+        RabbitConfig requireRabbitConfig(String configName) {
+            Map<String, RabbitConfig> byName = rabbitConfigsByName;
+            if (byName.isEmpty()) {
+                throw new IllegalStateException("No Rabbit-MQ config defined, check the global configuration");
+            }
+
+            RabbitConfig rabbitConfig = configName != null ? byName.get(configName) : null;
+            if (rabbitConfig == null) {
+                throw new IllegalArgumentException("Unknown rabbit config : " + configName);
+            }
+            return rabbitConfig;
         }
 
         public ListBoxModel doFillRabbitNameItems() {
             ListBoxModel options = new ListBoxModel();
-            configs.rabbitConfigs.forEach(rc -> options.add(rc.name));
+            if (configs != null) {
+                configs.rabbitConfigs.forEach(rc -> options.add(rc.name));
+            }
             return options;
         }
 
@@ -294,6 +1650,33 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                 return FormValidation.ok();
             }
         }
+
+        public FormValidation doCheckHeaders(@QueryParameter String value) {
+            try {
+                MessagePropertiesTemplate.parseHeaders(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckTargets(@QueryParameter String value) {
+            try {
+                PublishTarget.parseTargets(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckIdempotencyKey(@QueryParameter String value, @QueryParameter boolean onAgent) {
+            // the dedup cache is on the controller, the body is only known by the agent
+            if (onAgent && StringUtils.isNotBlank(value)
+                    && MessageTemplate.compile(value).getVariables().contains(PAYLOAD_HASH)) {
+                return FormValidation.error("${" + PAYLOAD_HASH + "} can not be used when publishing from the agent");
+            }
+            return FormValidation.ok();
+        }
     }
 
     public static final class Configs extends AbstractDescribableImpl<Configs> {
@@ -344,7 +1727,13 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         }
     }
 
-    public static class RabbitConfig extends AbstractDescribableImpl<RabbitConfig> {
+    public static class RabbitConfig extends AbstractDescribableImpl<RabbitConfig> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        // same default than CachingConnectionFactory
+        static final int DEFAULT_CHANNEL_CACHE_SIZE = 25;
+        static final int DEFAULT_PUBLISH_TIMEOUT = 30;
 
         private String name;
         private String host;
@@ -353,6 +1742,17 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         private String username;
         private String password;
         private String virtualHost;
+        private String addresses;
+        private int channelCacheSize = DEFAULT_CHANNEL_CACHE_SIZE;
+        private long channelCheckoutTimeout;
+        private CacheMode cacheMode = CacheMode.CHANNEL;
+        private int channelStripes = 1;
+        private int maxMessagesPerSecond;
+        private long maxBytesPerSecond;
+        private BlockedPolicy blockedPolicy = BlockedPolicy.WAIT;
+        private int publishTimeout = DEFAULT_PUBLISH_TIMEOUT;
+        // only set on the copies sent to the agents, see forAgent()
+        private Secret agentPassword;
 
         @DataBoundConstructor
         public RabbitConfig(String name, String host, int port, String username, String password, boolean isSecure,
@@ -401,6 +1801,9 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         }
 
         public String getDecodedPassword() {
+            if (agentPassword != null) {
+                return agentPassword.getPlainText();
+            }
             return getDecodedPassword(password);
         }
 
@@ -408,6 +1811,199 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
             return isSecure;
         }
 
+        public String getAddresses() {
+            return addresses;
+        }
+
+        /**
+         * @param addresses nodes of a cluster, as <code>host[:port],host[:port]</code>, used in place of the host and
+         *                  port when not blank
+         */
+        @DataBoundSetter
+        public void setAddresses(String addresses) {
+            this.addresses = StringUtils.trimToNull(addresses);
+        }
+
+        public int getChannelCacheSize() {
+            return channelCacheSize;
+        }
+
+        /**
+         * @param channelCacheSize number of idle channels kept open, or the maximum number of channels with a
+         *                         {@link #getChannelCheckoutTimeout() checkout timeout}
+         */
+        @DataBoundSetter
+        public void setChannelCacheSize(int channelCacheSize) {
+            this.channelCacheSize = channelCacheSize > 0 ? channelCacheSize : DEFAULT_CHANNEL_CACHE_SIZE;
+        }
+
+        public long getChannelCheckoutTimeout() {
+            return channelCheckoutTimeout;
+        }
+
+        /**
+         * @param channelCheckoutTimeout maximum time in ms to wait for a free channel, 0 to open a new channel when
+         *                               none is free
+         */
+        @DataBoundSetter
+        public void setChannelCheckoutTimeout(long channelCheckoutTimeout) {
+            this.channelCheckoutTimeout = Math.max(0, channelCheckoutTimeout);
+        }
+
+        public CacheMode getCacheMode() {
+            return cacheMode;
+        }
+
+        @DataBoundSetter
+        public void setCacheMode(CacheMode cacheMode) {
+            this.cacheMode = cacheMode != null ? cacheMode : CacheMode.CHANNEL;
+        }
+
+        public int getChannelStripes() {
+            return channelStripes;
+        }
+
+        /**
+         * @param channelStripes number of connections, each with its own channel cache, the publishing threads being
+         *                       spread between them
+         */
+        @DataBoundSetter
+        public void setChannelStripes(int channelStripes) {
+            this.channelStripes = channelStripes > 0 ? channelStripes : 1;
+        }
+
+        public int getMaxMessagesPerSecond() {
+            return maxMessagesPerSecond;
+        }
+
+        /**
+         * @param maxMessagesPerSecond maximum number of messages published per second, 0 for no limit
+         */
+        @DataBoundSetter
+        public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+            this.maxMessagesPerSecond = Math.max(0, maxMessagesPerSecond);
+        }
+
+        public long getMaxBytesPerSecond() {
+            return maxBytesPerSecond;
+        }
+
+        /**
+         * @param maxBytesPerSecond maximum number of body bytes published per second, 0 for no limit
+         */
+        @DataBoundSetter
+        public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        }
+
+        public BlockedPolicy getBlockedPolicy() {
+            return blockedPolicy;
+        }
+
+        /**
+         * @param blockedPolicy what a publish does while the broker blocks the connection
+         */
+        @DataBoundSetter
+        public void setBlockedPolicy(BlockedPolicy blockedPolicy) {
+            this.blockedPolicy = blockedPolicy != null ? blockedPolicy : BlockedPolicy.WAIT;
+        }
+
+        public int getPublishTimeout() {
+            return publishTimeout;
+        }
+
+        /**
+         * @param publishTimeout maximum time in seconds a publish waits for the rate limits or a blocked broker
+         */
+        @DataBoundSetter
+        public void setPublishTimeout(int publishTimeout) {
+            this.publishTimeout = publishTimeout > 0 ? publishTimeout : DEFAULT_PUBLISH_TIMEOUT;
+        }
+
+        /**
+         * @return the last status of the broker probed in background, <code>null</code> if not probed yet
+         */
+        public String getHealthStatus() {
+            BrokerHealth health = BrokerHealthProbe.getHealth(this);
+            if (health == null) {
+                return null;
+            }
+            return health.describe() + " (" + TimeUnit.MILLISECONDS.toSeconds(
+                    System.currentTimeMillis() - health.getCheckedAt()) + "s ago)";
+        }
+
+        /**
+         * @return a copy of this config to send to an agent, with the password decrypted on the controller, as the
+         * agents can not decrypt it : the password is only held by a {@link Secret} and sent over the agent channel
+         */
+        RabbitConfig forAgent() {
+            RabbitConfig copy = new RabbitConfig(name, host, port, username, null, isSecure, virtualHost);
+            copy.addresses = addresses;
+            copy.channelCacheSize = channelCacheSize;
+            copy.channelCheckoutTimeout = channelCheckoutTimeout;
+            copy.cacheMode = cacheMode;
+            copy.channelStripes = channelStripes;
+            copy.maxMessagesPerSecond = maxMessagesPerSecond;
+            copy.maxBytesPerSecond = maxBytesPerSecond;
+            copy.blockedPolicy = blockedPolicy;
+            copy.publishTimeout = publishTimeout;
+            copy.agentPassword = Secret.fromString(getDecodedPassword());
+            return copy;
+        }
+
+        // default values for configs saved before the cache settings
+        protected Object readResolve() {
+            if (channelCacheSize <= 0) {
+                channelCacheSize = DEFAULT_CHANNEL_CACHE_SIZE;
+            }
+            if (cacheMode == null) {
+                cacheMode = CacheMode.CHANNEL;
+            }
+            if (channelStripes <= 0) {
+                channelStripes = 1;
+            }
+            if (blockedPolicy == null) {
+                blockedPolicy = BlockedPolicy.WAIT;
+                publishTimeout = DEFAULT_PUBLISH_TIMEOUT;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RabbitConfig that = (RabbitConfig) o;
+            return port == that.port
+                    && isSecure == that.isSecure
+                    && Objects.equals(name, that.name)
+                    && Objects.equals(host, that.host)
+                    && Objects.equals(username, that.username)
+                    // encrypted value changes on each save, compare the plain text
+                    && Objects.equals(getDecodedPassword(), that.getDecodedPassword())
+                    && Objects.equals(virtualHost, that.virtualHost)
+                    && Objects.equals(addresses, that.addresses)
+                    && channelCacheSize == that.channelCacheSize
+                    && channelCheckoutTimeout == that.channelCheckoutTimeout
+                    && cacheMode == that.cacheMode
+                    && channelStripes == that.channelStripes
+                    && maxMessagesPerSecond == that.maxMessagesPerSecond
+                    && maxBytesPerSecond == that.maxBytesPerSecond
+                    && blockedPolicy == that.blockedPolicy
+                    && publishTimeout == that.publishTimeout;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, host, port, isSecure, username, virtualHost, addresses, channelCacheSize,
+                    channelCheckoutTimeout, cacheMode, channelStripes, maxMessagesPerSecond, maxBytesPerSecond,
+                    blockedPolicy, publishTimeout);
+        }
+
         static RabbitConfig fromJSON(JSONObject jsonObject) {
             String name = jsonObject.getString("name");
             String host = jsonObject.getString("host");
@@ -419,7 +2015,21 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
             Secret secret = Secret.fromString(password);
 
-            return new RabbitConfig(name, host, port, username, secret.getEncryptedValue(), isSecure, virtualHost);
+            RabbitConfig rabbitConfig = new RabbitConfig(name, host, port, username, secret.getEncryptedValue(),
+                    isSecure, virtualHost);
+            rabbitConfig.setAddresses(jsonObject.optString("addresses", null));
+            rabbitConfig.setChannelCacheSize(jsonObject.optInt("channelCacheSize", DEFAULT_CHANNEL_CACHE_SIZE));
+            rabbitConfig.setChannelCheckoutTimeout(jsonObject.optLong("channelCheckoutTimeout", 0));
+            String cacheMode = jsonObject.optString("cacheMode", null);
+            rabbitConfig.setCacheMode(StringUtils.isNotBlank(cacheMode) ? CacheMode.valueOf(cacheMode) : null);
+            rabbitConfig.setChannelStripes(jsonObject.optInt("channelStripes", 1));
+            rabbitConfig.setMaxMessagesPerSecond(jsonObject.optInt("maxMessagesPerSecond", 0));
+            rabbitConfig.setMaxBytesPerSecond(jsonObject.optLong("maxBytesPerSecond", 0));
+            String blockedPolicy = jsonObject.optString("blockedPolicy", null);
+            rabbitConfig.setBlockedPolicy(StringUtils.isNotBlank(blockedPolicy) ? BlockedPolicy.valueOf(blockedPolicy) : null);
+            rabbitConfig.setPublishTimeout(jsonObject.optInt("publishTimeout", DEFAULT_PUBLISH_TIMEOUT));
+
+            return rabbitConfig;
         }
 
         @Override
@@ -444,19 +2054,33 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                                                    @QueryParameter("username") final String username,
                                                    @QueryParameter("password") final String password,
                                                    @QueryParameter("isSecure") final String isSecure,
-                                                   @QueryParameter("virtualHost") final String virtualHost) {
+                                                   @QueryParameter("virtualHost") final String virtualHost,
+                                                   @QueryParameter("addresses") final String addresses,
+                                                   @QueryParameter("name") final String name) {
                 // https://jenkins.io/doc/developer/security/form-validation/
                 Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER); // Keep this deprecated method for compatibility with old jenkins
 
+                // the saved config, if not edited since, is probed in background
+                RabbitConfig saved = getSavedConfig(name, host, port, username, password, isSecure, virtualHost,
+                        addresses);
+                BrokerHealth health = saved != null ? BrokerHealthProbe.getHealth(saved) : null;
+                if (health != null) {
+                    return toFormValidation(health);
+                }
+
+                if (StringUtils.isNotBlank(addresses)) {
+                    return testNodes(username, password, Boolean.parseBoolean(isSecure), virtualHost, addresses);
+                }
+
                 try {
-                    ConnectionFactory connectionFactory = RabbitMqFactory.createConnectionFactory(
+                    ConnectionFactory connectionFactory = BrokerHealthProbe.strict(RabbitMqFactory.createConnectionFactory(
                             username,
                             getDecodedPassword(password),
                             host,
                             Integer.parseInt(port),
                             Boolean.parseBoolean(isSecure),
                             virtualHost
-                    );
+                    ));
 
                     try (Connection connection = connectionFactory.newConnection()) {
                         if (connection.isOpen()) {
@@ -470,6 +2094,98 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                     return FormValidation.error("Client error : " + e.getMessage());
                 }
             }
+
+            /**
+             * @return the saved config with this name, if the form has the same broker settings, else
+             * <code>null</code>
+             */
+            private static RabbitConfig getSavedConfig(String name, String host, String port, String username,
+                                                       String password, String isSecure, String virtualHost,
+                                                       String addresses) {
+                RabbitMqDescriptor descriptor = Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+                RabbitConfig saved = descriptor != null ? descriptor.getRabbitConfig(Util.fixEmptyAndTrim(name)) : null;
+                if (saved == null) {
+                    return null;
+                }
+
+                boolean same = Objects.equals(saved.getHost(), host)
+                        && String.valueOf(saved.getPort()).equals(port)
+                        && Objects.equals(saved.getUsername(), username)
+                        && Objects.equals(saved.getDecodedPassword(), getDecodedPassword(password))
+                        && saved.getIsSecure() == Boolean.parseBoolean(isSecure)
+                        && Objects.equals(saved.getVirtualHost(), virtualHost)
+                        && Objects.equals(saved.getAddresses(), StringUtils.trimToNull(addresses));
+                return same ? saved : null;
+            }
+
+            private static FormValidation toFormValidation(BrokerHealth health) {
+                String html = "Probed " + TimeUnit.MILLISECONDS.toSeconds(
+                        System.currentTimeMillis() - health.getCheckedAt()) + "s ago :<br>"
+                        + health.getNodes().stream().map(node -> Util.escape(node.toString()))
+                        .collect(Collectors.joining("<br>"));
+                switch (health.getStatus()) {
+                    case UP:
+                        return FormValidation.respond(FormValidation.Kind.OK, html);
+                    case DEGRADED:
+                        return FormValidation.respond(FormValidation.Kind.WARNING, html);
+                    default:
+                        return FormValidation.respond(FormValidation.Kind.ERROR, html);
+                }
+            }
+
+            // each node is connected on its own, to report its latency
+            private FormValidation testNodes(String username, String password, boolean isSecure, String virtualHost,
+                                             String addresses) {
+                List<String> results = new ArrayList<>();
+                int failures = 0;
+                List<Address> nodes;
+                try {
+                    nodes = RabbitMqFactory.parseAddresses(addresses);
+                } catch (IllegalArgumentException e) {
+                    return FormValidation.error("Incorrect addresses : " + e.getMessage());
+                }
+
+                for (Address node : nodes) {
+                    int nodePort = node.getPort() > 0
+                            ? node.getPort()
+                            : isSecure ? ConnectionFactory.DEFAULT_AMQP_OVER_SSL_PORT : ConnectionFactory.DEFAULT_AMQP_PORT;
+                    try {
+                        ConnectionFactory connectionFactory = BrokerHealthProbe.strict(
+                                RabbitMqFactory.createConnectionFactory(
+                                        username,
+                                        getDecodedPassword(password),
+                                        node.getHost(),
+                                        nodePort,
+                                        isSecure,
+                                        virtualHost
+                                ));
+
+                        long start = System.nanoTime();
+                        try (Connection connection = connectionFactory.newConnection()) {
+                            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                            if (connection.isOpen()) {
+                                results.add(node.getHost() + ":" + nodePort + " : connected in " + latency + " ms");
+                            } else {
+                                failures++;
+                                results.add(node.getHost() + ":" + nodePort + " : connection failed");
+                            }
+                        }
+                    } catch (IOException | TimeoutException | GeneralSecurityException e) {
+                        LOGGER.error("Connection error", e);
+                        failures++;
+                        results.add(node.getHost() + ":" + nodePort + " : client error : " + e.getMessage());
+                    }
+                }
+
+                String html = results.stream().map(Util::escape).collect(Collectors.joining("<br>"));
+                if (failures == 0) {
+                    return FormValidation.respond(FormValidation.Kind.OK, html);
+                } else if (failures < nodes.size()) {
+                    return FormValidation.respond(FormValidation.Kind.WARNING, html);
+                } else {
+                    return FormValidation.respond(FormValidation.Kind.ERROR, html);
+                }
+            }
         }
     }
 
@@ -0,0 +1,251 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.nio.NioParams;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqMetrics.ConnectionMetrics;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.connection.ChannelListener;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Registry of long-lived connections : one shared {@link CachingConnectionFactory} and {@link RabbitTemplate} per
+ * {@link RabbitConfig}, kept open between builds. With {@link RabbitConfig#getChannelStripes() stripes}, each stripe
+ * has its own connection and channel cache, and each publishing thread sticks to one stripe.<br>
+ * A pooled connection is rebuilt only when its configuration changes, and destroyed when Jenkins stops.
+ */
+class RabbitMqConnections {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqConnections.class);
+
+    private final ConcurrentMap<String, PooledConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param rabbitConfig broker configuration
+     * @return the shared template for this configuration, created on first use
+     * @throws GeneralSecurityException if the secure connection can not be initialised
+     */
+    RabbitTemplate getRabbitTemplate(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        return getPooled(rabbitConfig).getRabbitTemplate();
+    }
+
+    /**
+     * @param rabbitConfig broker configuration
+     * @return the gate to pass before publishing with the template of this configuration
+     * @throws GeneralSecurityException if the secure connection can not be initialised
+     */
+    PublishGate getPublishGate(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        return getPooled(rabbitConfig).gate;
+    }
+
+    private PooledConnection getPooled(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        PooledConnection pooled = connections.get(rabbitConfig.getName());
+        if (pooled != null && pooled.rabbitConfig.equals(rabbitConfig)) {
+            return pooled;
+        }
+
+        synchronized (this) {
+            pooled = connections.get(rabbitConfig.getName());
+            if (pooled == null || !pooled.rabbitConfig.equals(rabbitConfig)) {
+                if (pooled != null) {
+                    pooled.destroy();
+                }
+
+                LOGGER.info("Opening pooled connection for Rabbit-MQ config : {}", rabbitConfig.getName());
+                pooled = new PooledConnection(rabbitConfig);
+                connections.put(rabbitConfig.getName(), pooled);
+            }
+
+            return pooled;
+        }
+    }
+
+    /**
+     * Destroy every pooled connection whose configuration has been removed or modified.
+     *
+     * @param rabbitConfigs current broker configurations
+     */
+    synchronized void retain(Collection<RabbitConfig> rabbitConfigs) {
+        Collection<RabbitConfig> current = rabbitConfigs != null ? rabbitConfigs : Collections.emptyList();
+
+        Iterator<Map.Entry<String, PooledConnection>> iterator = connections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PooledConnection pooled = iterator.next().getValue();
+            if (!current.contains(pooled.rabbitConfig)) {
+                iterator.remove();
+                pooled.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return the node selectors of the pooled connections of this config, none if not pooled or not a cluster
+     */
+    Collection<NodeSelector> getNodeSelectors(String rabbitName) {
+        PooledConnection pooled = connections.get(rabbitName);
+        if (pooled == null) {
+            return Collections.emptyList();
+        }
+
+        List<NodeSelector> selectors = new ArrayList<>();
+        for (CachingConnectionFactory factory : pooled.factories) {
+            if (factory.getRabbitConnectionFactory() instanceof ClusterConnectionFactory) {
+                selectors.add(((ClusterConnectionFactory) factory.getRabbitConnectionFactory()).getNodeSelector());
+            }
+        }
+        return selectors;
+    }
+
+    /**
+     * Destroy all pooled connections.
+     */
+    synchronized void shutdown() {
+        connections.values().forEach(PooledConnection::destroy);
+        connections.clear();
+    }
+
+    /**
+     * Apply the publisher confirms, the channel cache settings and the publish timeout of the config.<br>
+     * Frames are written by an IO thread, from a queue : when the broker blocks the connection while a message is being
+     * written, the queue fills up and the send fails once it waited the publish timeout for room, instead of hanging
+     * until the connection is unblocked.
+     */
+    static CachingConnectionFactory configure(CachingConnectionFactory factory, RabbitConfig rabbitConfig) {
+        // confirms are always correlated, so that many publishes can be in flight on the same channel
+        factory.setPublisherConfirmType(ConfirmType.CORRELATED);
+        factory.setCacheMode(rabbitConfig.getCacheMode());
+        factory.setChannelCacheSize(rabbitConfig.getChannelCacheSize());
+        factory.setChannelCheckoutTimeout(rabbitConfig.getChannelCheckoutTimeout());
+
+        ConnectionFactory connectionFactory = factory.getRabbitConnectionFactory();
+        connectionFactory.useNio();
+        connectionFactory.setNioParams(new NioParams()
+                .setWriteEnqueuingTimeoutInMs((int) TimeUnit.SECONDS.toMillis(rabbitConfig.getPublishTimeout())));
+        return factory;
+    }
+
+    /**
+     * @return index of the stripe of the current thread : a thread always uses the same stripe
+     */
+    static int stripe(int stripes) {
+        return stripes == 1 ? 0 : (int) (Thread.currentThread().getId() % stripes);
+    }
+
+    private static class PooledConnection {
+
+        private final RabbitConfig rabbitConfig;
+        private final CachingConnectionFactory[] factories;
+        private final RabbitTemplate[] rabbitTemplates;
+        private final PublishGate gate;
+
+        private PooledConnection(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+            this.rabbitConfig = rabbitConfig;
+            this.gate = new PublishGate(rabbitConfig.getName(), rabbitConfig.getMaxMessagesPerSecond(),
+                    rabbitConfig.getMaxBytesPerSecond(), rabbitConfig.getBlockedPolicy(),
+                    rabbitConfig.getPublishTimeout());
+
+            ConnectionMetrics metrics = RabbitMqMetrics.connection(rabbitConfig.getName());
+
+            int stripes = rabbitConfig.getChannelStripes();
+            this.factories = new CachingConnectionFactory[stripes];
+            this.rabbitTemplates = new RabbitTemplate[stripes];
+            for (int i = 0; i < stripes; i++) {
+                CachingConnectionFactory factory = configure(
+                        RabbitMqFactory.getCachingConnectionFactory(rabbitConfig), rabbitConfig);
+                listen(factory, metrics, gate, rabbitConfig.getName());
+                factories[i] = factory;
+
+                RabbitTemplate rabbitTemplate = RabbitMqFactory.getRabbitTemplate(factory);
+                rabbitTemplate.setConfirmCallback((correlationData, ack, cause) -> {
+                    if (!ack) {
+                        LOGGER.warn("Message {} rejected by broker {} : {}",
+                                correlationData != null ? correlationData.getId() : null, rabbitConfig.getName(),
+                                cause);
+                    }
+                });
+                rabbitTemplates[i] = rabbitTemplate;
+            }
+        }
+
+        private RabbitTemplate getRabbitTemplate() {
+            return rabbitTemplates[stripe(rabbitTemplates.length)];
+        }
+
+        private static void listen(CachingConnectionFactory factory, ConnectionMetrics metrics, PublishGate gate,
+                                   String rabbitName) {
+            ConnectionMetrics.Channels channels = metrics.channels();
+            factory.addConnectionListener(new ConnectionListener() {
+                @Override
+                public void onCreate(Connection connection) {
+                    metrics.connectionOpened();
+                    // flow control of the broker, eg: memory or disk alarm
+                    connection.addBlockedListener(new BlockedListener() {
+                        @Override
+                        public void handleBlocked(String reason) {
+                            LOGGER.warn("Rabbit-MQ broker of config {} is blocking publishes : {}", rabbitName,
+                                    reason);
+                            metrics.blocked();
+                            gate.blocked(reason);
+                        }
+
+                        @Override
+                        public void handleUnblocked() {
+                            LOGGER.info("Rabbit-MQ broker of config {} is accepting publishes again", rabbitName);
+                            metrics.unblocked();
+                            gate.unblocked();
+                        }
+                    });
+                }
+
+                @Override
+                public void onClose(Connection connection) {
+                    metrics.connectionClosed();
+                    channels.connectionClosed();
+                    // a new connection starts unblocked
+                    metrics.unblocked();
+                    gate.unblocked();
+                }
+            });
+            factory.addChannelListener(new ChannelListener() {
+                @Override
+                public void onCreate(Channel channel, boolean transactional) {
+                    channels.opened();
+                }
+
+                @Override
+                public void onShutDown(ShutdownSignalException signal) {
+                    channels.closed();
+                }
+            });
+        }
+
+        private void destroy() {
+            LOGGER.info("Closing pooled connection for Rabbit-MQ config : {}", rabbitConfig.getName());
+            for (CachingConnectionFactory factory : factories) {
+                try {
+                    factory.destroy();
+                } catch (Exception e) {
+                    LOGGER.warn("Error while closing connection for Rabbit-MQ config : " + rabbitConfig.getName(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.annotation.Nonnull;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Global configuration of the build events : the Rabbit-MQ configs and exchange to which the started, completed and
+ * finalized events of the runs are published by the {@link BuildEventListener}, and the jobs concerned.
+ */
+@Extension
+@Symbol("rabbitMQBuildEvents")
+public class RabbitMqEventsConfiguration extends GlobalConfiguration {
+
+    static final String DEFAULT_ROUTING_KEY_PREFIX = "jenkins.build";
+
+    private String rabbitNames;
+    private String exchange;
+    private String routingKeyPrefix = DEFAULT_ROUTING_KEY_PREFIX;
+    private String jobFilter;
+
+    // parsed once from the options, read without lock by the listener
+    private transient volatile List<String> rabbitNameList = Collections.emptyList();
+    private transient volatile Pattern jobPattern;
+
+    public RabbitMqEventsConfiguration() {
+        load();
+        parse();
+    }
+
+    /**
+     * @return the configuration, or <code>null</code> if Jenkins is not running
+     */
+    static RabbitMqEventsConfiguration get() {
+        return GlobalConfiguration.all().get(RabbitMqEventsConfiguration.class);
+    }
+
+    public String getRabbitNames() {
+        return rabbitNames;
+    }
+
+    /**
+     * @param rabbitNames names of the Rabbit-MQ configs to publish to, separated by commas, none to disable the events
+     */
+    @DataBoundSetter
+    public void setRabbitNames(String rabbitNames) {
+        this.rabbitNames = Util.fixEmptyAndTrim(rabbitNames);
+        parse();
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    @DataBoundSetter
+    public void setExchange(String exchange) {
+        this.exchange = Util.fixEmptyAndTrim(exchange);
+    }
+
+    public String getRoutingKeyPrefix() {
+        return routingKeyPrefix;
+    }
+
+    /**
+     * @param routingKeyPrefix prefix of the routing keys, followed by the event type (eg:
+     *                         <code>jenkins.build.completed</code>)
+     */
+    @DataBoundSetter
+    public void setRoutingKeyPrefix(String routingKeyPrefix) {
+        String prefix = Util.fixEmptyAndTrim(routingKeyPrefix);
+        this.routingKeyPrefix = prefix != null ? prefix : DEFAULT_ROUTING_KEY_PREFIX;
+    }
+
+    public String getJobFilter() {
+        return jobFilter;
+    }
+
+    /**
+     * @param jobFilter regular expression matched against the full name of the jobs (eg: <code>team-a/.*</code>),
+     *                  none for all the jobs
+     */
+    @DataBoundSetter
+    public void setJobFilter(String jobFilter) {
+        this.jobFilter = Util.fixEmptyAndTrim(jobFilter);
+        parse();
+    }
+
+    private void parse() {
+        List<String> names = new ArrayList<>();
+        if (rabbitNames != null) {
+            for (String name : rabbitNames.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        rabbitNameList = Collections.unmodifiableList(names);
+
+        try {
+            jobPattern = jobFilter != null ? Pattern.compile(jobFilter) : null;
+        } catch (PatternSyntaxException e) {
+            // no event rather than events for all the jobs
+            jobPattern = Pattern.compile("a^");
+        }
+    }
+
+    List<String> getRabbitNameList() {
+        return rabbitNameList;
+    }
+
+    /**
+     * @return true if the events of this job are published
+     */
+    boolean isEnabledFor(String jobFullName) {
+        if (rabbitNameList.isEmpty() || exchange == null) {
+            return false;
+        }
+        Pattern pattern = jobPattern;
+        return pattern == null || pattern.matcher(jobFullName).matches();
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) {
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    public FormValidation doCheckJobFilter(@QueryParameter String value) {
+        try {
+            if (Util.fixEmptyAndTrim(value) != null) {
+                Pattern.compile(value.trim());
+            }
+            return FormValidation.ok();
+        } catch (PatternSyntaxException e) {
+            return FormValidation.error("Incorrect regular expression : " + e.getDescription());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+        return "Rabbit-MQ build events";
+    }
+}
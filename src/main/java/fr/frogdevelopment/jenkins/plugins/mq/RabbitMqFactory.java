@@ -1,28 +1,50 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
+import com.rabbitmq.client.Address;
 import com.rabbitmq.client.ConnectionFactory;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
 
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
 
 class RabbitMqFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqFactory.class);
 
+    // stateless and thread safe, shared by all the templates
+    private static final MessageConverter MESSAGE_CONVERTER = new Jackson2JsonMessageConverter();
+
     static ConnectionFactory mockConnectionFactory; // keep it, for test use
     static RabbitTemplate mockRabbitTemplate; // keep it, for test use
 
     static ConnectionFactory createConnectionFactory(String username, String password, String host, int port, boolean isSecure,String virtualHost) throws GeneralSecurityException {
+        return createConnectionFactory(username, password, host, port, isSecure, virtualHost, null);
+    }
+
+    /**
+     * @param addresses cluster nodes, as <code>host[:port],host[:port]</code>, used in place of host and port if not
+     *                  blank
+     */
+    static ConnectionFactory createConnectionFactory(String username, String password, String host, int port, boolean isSecure, String virtualHost, String addresses) throws GeneralSecurityException {
 
-        LOGGER.info("Initialisation Rabbit-MQ :\n\t-Host : {}\n\t-Port : {}\n\t-User : {}", host, port, username);
+        ConnectionFactory connectionFactory;
+        if (StringUtils.isNotBlank(addresses)) {
+            LOGGER.debug("Initialisation Rabbit-MQ :\n\t-Addresses : {}\n\t-User : {}", addresses, username);
+            connectionFactory = new ClusterConnectionFactory(parseAddresses(addresses));
+        } else {
+            LOGGER.debug("Initialisation Rabbit-MQ :\n\t-Host : {}\n\t-Port : {}\n\t-User : {}", host, port, username);
+            connectionFactory = new ConnectionFactory();
+        }
 
         //
-        ConnectionFactory connectionFactory = new ConnectionFactory();
         connectionFactory.setAutomaticRecoveryEnabled(false);
         connectionFactory.setHost(host);
         connectionFactory.setPort(port);
@@ -37,9 +59,13 @@ class RabbitMqFactory {
         return connectionFactory;
     }
 
+    static List<Address> parseAddresses(String addresses) {
+        return Arrays.asList(Address.parseAddresses(addresses.trim().replaceAll("\\s*,\\s*", ",")));
+    }
+
     static RabbitTemplate getRabbitTemplate(CachingConnectionFactory factory) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(factory);
-        rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+        rabbitTemplate.setMessageConverter(MESSAGE_CONVERTER);
 
         return rabbitTemplate;
     }
@@ -51,7 +77,8 @@ class RabbitMqFactory {
                 rabbitConfig.getHost(),
                 rabbitConfig.getPort(),
                 rabbitConfig.getIsSecure(),
-                rabbitConfig.getVirtualHost()
+                rabbitConfig.getVirtualHost(),
+                rabbitConfig.getAddresses()
         );
 
         return new CachingConnectionFactory(connectionFactory);
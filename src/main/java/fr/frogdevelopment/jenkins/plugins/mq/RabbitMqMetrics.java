@@ -0,0 +1,276 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.LatencyHistogram.Snapshot;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publish metrics, per Rabbit-MQ config and exchange, and connection metrics, per Rabbit-MQ config.<br>
+ * Metrics are registered in JMX under the <code>fr.frogdevelopment.jenkins.plugins.mq</code> domain, and in the
+ * registry of the Metrics plugin when it is installed.
+ */
+final class RabbitMqMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqMetrics.class);
+
+    static final String JMX_DOMAIN = "fr.frogdevelopment.jenkins.plugins.mq";
+
+    private static final ConcurrentMap<Key, PublishMetrics> PUBLISH = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConnectionMetrics> CONNECTIONS = new ConcurrentHashMap<>();
+
+    private RabbitMqMetrics() {
+    }
+
+    /**
+     * @return the publish metrics of this config and exchange, registered on first use
+     */
+    static PublishMetrics publish(String rabbitName, String exchange) {
+        Key key = new Key(String.valueOf(rabbitName), String.valueOf(exchange));
+        PublishMetrics metrics = PUBLISH.get(key);
+        if (metrics == null) {
+            metrics = PUBLISH.computeIfAbsent(key, k -> {
+                PublishMetrics created = new PublishMetrics();
+                register(created, "type=Publish,config=" + ObjectName.quote(k.rabbitName)
+                        + ",exchange=" + ObjectName.quote(k.exchange));
+                bridge(bridge -> bridge.register(k.rabbitName, k.exchange, created));
+                return created;
+            });
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the connection metrics of this config, registered on first use
+     */
+    static ConnectionMetrics connection(String rabbitName) {
+        return CONNECTIONS.computeIfAbsent(String.valueOf(rabbitName), name -> {
+            ConnectionMetrics created = new ConnectionMetrics();
+            register(created, "type=Connection,config=" + ObjectName.quote(name));
+            bridge(bridge -> bridge.register(name, created));
+            return created;
+        });
+    }
+
+    private static void register(Object mbean, String properties) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(JMX_DOMAIN + ":" + properties));
+        } catch (JMException e) {
+            LOGGER.warn("Unable to register Rabbit-MQ metrics in JMX : " + properties, e);
+        }
+    }
+
+    private interface BridgeCall {
+        void apply(MetricsPluginBridge bridge);
+    }
+
+    private static void bridge(BridgeCall call) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+            return;
+        }
+
+        try {
+            call.apply(MetricsPluginBridge.INSTANCE);
+        } catch (RuntimeException | LinkageError e) {
+            LOGGER.warn("Unable to register Rabbit-MQ metrics in the Metrics plugin", e);
+        }
+    }
+
+    static final class PublishMetrics implements PublishMetricsMXBean {
+
+        final LatencyHistogram render = new LatencyHistogram();
+        final LatencyHistogram connect = new LatencyHistogram();
+        final LatencyHistogram send = new LatencyHistogram();
+        final LatencyHistogram confirm = new LatencyHistogram();
+
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * Messages handed to the broker, until {@link #settled(int)}.
+         */
+        void sending(int count) {
+            inFlight.addAndGet(count);
+        }
+
+        /**
+         * Messages sent, or confirmed, or failed.
+         */
+        void settled(int count) {
+            inFlight.addAndGet(-count);
+        }
+
+        void sent(int count, long size) {
+            messages.add(count);
+            bytes.add(size);
+        }
+
+        void failed() {
+            failures.increment();
+        }
+
+        @Override
+        public long getMessages() {
+            return messages.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public Snapshot getRenderLatency() {
+            return render.snapshot();
+        }
+
+        @Override
+        public Snapshot getConnectLatency() {
+            return connect.snapshot();
+        }
+
+        @Override
+        public Snapshot getSendLatency() {
+            return send.snapshot();
+        }
+
+        @Override
+        public Snapshot getConfirmLatency() {
+            return confirm.snapshot();
+        }
+    }
+
+    static final class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger channels = new AtomicInteger();
+        private final AtomicBoolean blocked = new AtomicBoolean();
+        private final AtomicLong blockedCount = new AtomicLong();
+
+        void connectionOpened() {
+            connections.incrementAndGet();
+        }
+
+        void connectionClosed() {
+            connections.updateAndGet(count -> Math.max(0, count - 1));
+        }
+
+        void blocked() {
+            if (blocked.compareAndSet(false, true)) {
+                blockedCount.incrementAndGet();
+            }
+        }
+
+        void unblocked() {
+            blocked.set(false);
+        }
+
+        /**
+         * @return the channel count of a connection factory, the config's count being the sum of its factories
+         */
+        Channels channels() {
+            return new Channels();
+        }
+
+        @Override
+        public int getOpenConnections() {
+            return connections.get();
+        }
+
+        @Override
+        public int getOpenChannels() {
+            return channels.get();
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return blocked.get();
+        }
+
+        @Override
+        public long getBlockedCount() {
+            return blockedCount.get();
+        }
+
+        /**
+         * Channels open on the connection of one factory, so that closing it only subtracts its own channels.
+         */
+        final class Channels {
+
+            private final AtomicInteger open = new AtomicInteger();
+
+            private Channels() {
+            }
+
+            void opened() {
+                open.incrementAndGet();
+                channels.incrementAndGet();
+            }
+
+            void closed() {
+                // also notified for the channels of a connection already closed
+                if (open.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                    channels.decrementAndGet();
+                }
+            }
+
+            /**
+             * The channels are closed with their connection.
+             */
+            void connectionClosed() {
+                channels.addAndGet(-open.getAndSet(0));
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final String rabbitName;
+        private final String exchange;
+
+        private Key(String rabbitName, String exchange) {
+            this.rabbitName = rabbitName;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return rabbitName.equals(key.rabbitName) && exchange.equals(key.exchange);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rabbitName, exchange);
+        }
+    }
+}
@@ -0,0 +1,845 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Durable outbox : rendered messages are appended to a log on disk and the build goes on, while a background drainer
+ * replays the log to the brokers, in order and by batches.<br>
+ * Each Rabbit-MQ config has its own queue, in its own directory, so that a config failing does not hold back the
+ * others. A queue log is made of append-only segments, rotated when full and deleted once drained. The position of
+ * the next message to send is saved in a checkpoint file after each batch, so that the drain resumes after a restart
+ * (a message may then be sent twice, never lost).<br>
+ * A message rejected by the broker, or failing while the broker is reachable, is retried {@link #MAX_ATTEMPTS} times,
+ * then moved to the dead-letter file of its queue with a warning, to be inspected or replayed by hand. The failures
+ * to connect and the confirm timeouts are retried without limit.
+ * <p>
+ * Record format : <code>[length:int][crc32:int][payload:length bytes]</code>
+ */
+class RabbitMqOutbox {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqOutbox.class);
+
+    private static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final int FORMAT_VERSION = 1;
+    private static final int DRAIN_BATCH_SIZE = 100;
+    private static final long DRAIN_DELAY_MS = 1000;
+    private static final long CONFIRM_TIMEOUT_S = 30;
+    static final int MAX_ATTEMPTS = 5;
+
+    private static final String QUEUE_PREFIX = "queue-";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    static final String DEAD_LETTER = "dead-letter.log";
+
+    // type of a header value
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+
+    /**
+     * Resolve the template of a Rabbit-MQ config name.
+     */
+    interface Templates {
+
+        /**
+         * @return the template, or <code>null</code> if the config does not exist anymore
+         */
+        RabbitTemplate get(String rabbitName) throws GeneralSecurityException;
+
+        /**
+         * @return the gate to pass before sending with the template, or <code>null</code> if none
+         */
+        default PublishGate gate(String rabbitName) throws GeneralSecurityException {
+            return null;
+        }
+    }
+
+    private final File directory;
+    private final Templates templates;
+
+    // queue of each config by directory name, guarded by this
+    private final Map<String, Queue> queues = new LinkedHashMap<>();
+    private boolean closed;
+
+    private ScheduledExecutorService drainer;
+
+    RabbitMqOutbox(File directory, Templates templates) throws IOException {
+        this.directory = directory;
+        this.templates = templates;
+
+        Files.createDirectories(directory.toPath());
+
+        File[] queueDirectories = directory.listFiles(file -> file.isDirectory()
+                && file.getName().startsWith(QUEUE_PREFIX));
+        if (queueDirectories != null) {
+            Arrays.sort(queueDirectories);
+            for (File queueDirectory : queueDirectories) {
+                queues.put(queueDirectory.getName(), new Queue(queueDirectory));
+            }
+        }
+    }
+
+    /**
+     * Start draining in background.
+     */
+    synchronized void start() {
+        if (drainer == null) {
+            drainer = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "RabbitMqOutbox"));
+            drainer.scheduleWithFixedDelay(this::drainQuietly, DRAIN_DELAY_MS, DRAIN_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop draining and close the log. Messages not yet sent will be sent after the next start.
+     */
+    void stop() {
+        List<Queue> closing;
+        synchronized (this) {
+            if (drainer != null) {
+                drainer.shutdownNow();
+                drainer = null;
+            }
+            closed = true;
+            closing = new ArrayList<>(queues.values());
+        }
+
+        closing.forEach(Queue::close);
+    }
+
+    /**
+     * Append a message to the queue of its config, written to disk when the method returns.
+     */
+    void append(String rabbitName, String exchange, String routingKey, Message message) throws IOException {
+        queue(rabbitName).append(encode(rabbitName, exchange, routingKey, message));
+    }
+
+    private synchronized Queue queue(String rabbitName) throws IOException {
+        if (closed) {
+            throw new IOException("Outbox is closed");
+        }
+
+        // a config name is not always a valid file name
+        String name = QUEUE_PREFIX + Utils.sha256(rabbitName.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        Queue queue = queues.get(name);
+        if (queue == null) {
+            queue = new Queue(new File(directory, name));
+            queues.put(name, queue);
+        }
+        return queue;
+    }
+
+    private synchronized List<Queue> queues() {
+        return new ArrayList<>(queues.values());
+    }
+
+    private void drainQuietly() {
+        queues().forEach(Queue::drainQuietly);
+    }
+
+    /**
+     * Send all the messages of the queues, in order. A queue failing does not prevent the others from being drained.
+     *
+     * @return number of messages sent
+     * @throws Exception the failure of the first queue failing
+     */
+    int drain() throws Exception {
+        int sent = 0;
+        Exception failure = null;
+        for (Queue queue : queues()) {
+            try {
+                sent += queue.drain();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return sent;
+    }
+
+    /**
+     * Log of the messages of one config, drained in order.
+     */
+    private final class Queue {
+
+        private final File directory;
+
+        // writer state, guarded by this
+        private FileChannel writeChannel;
+        private long writeSegment;
+        private long writePosition;
+        // last complete record visible to the drainer
+        private volatile Position committed;
+
+        // drainer state, guarded by drainLock
+        private final Object drainLock = new Object();
+        private FileChannel readChannel;
+        private long readSegment;
+        private long readPosition;
+        private boolean failing;
+        // failures of the record at the head of the queue
+        private Position attemptsHead;
+        private int attempts;
+        // end of a failed batch, sent again one record at a time to find the failing one
+        private Position isolateUntil;
+
+        private Queue(File directory) throws IOException {
+            this.directory = directory;
+
+            Files.createDirectories(directory.toPath());
+
+            List<Long> segments = listSegments(directory);
+            writeSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.READ);
+            writePosition = recover(writeChannel);
+            writeChannel.position(writePosition);
+            committed = new Position(writeSegment, writePosition);
+
+            loadCheckpoint(segments.isEmpty() ? writeSegment : segments.get(0));
+        }
+
+        private synchronized void append(byte[] payload) throws IOException {
+            if (writeChannel == null) {
+                throw new IOException("Outbox is closed");
+            }
+
+            if (writePosition > 0 && writePosition + HEADER_SIZE + payload.length > SEGMENT_SIZE) {
+                rotate();
+            }
+
+            write(writeChannel, payload);
+            writeChannel.force(false);
+
+            writePosition += HEADER_SIZE + payload.length;
+            committed = new Position(writeSegment, writePosition);
+        }
+
+        private void rotate() throws IOException {
+            writeChannel.close();
+            writeSegment++;
+            writePosition = 0;
+            writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.READ);
+        }
+
+        private void close() {
+            synchronized (drainLock) {
+                closeQuietly(readChannel);
+                readChannel = null;
+            }
+
+            synchronized (this) {
+                closeQuietly(writeChannel);
+                writeChannel = null;
+            }
+        }
+
+        private void drainQuietly() {
+            try {
+                int sent = drain();
+                if (failing) {
+                    LOGGER.info("Outbox drain of {} resumed", directory.getName());
+                    failing = false;
+                }
+                if (sent > 0) {
+                    LOGGER.debug("{} messages sent from outbox {}", sent, directory.getName());
+                }
+            } catch (Exception e) {
+                // retried on next run, only logged once
+                if (!failing) {
+                    LOGGER.warn("Error while draining outbox {}, will retry", directory.getName(), e);
+                    failing = true;
+                }
+            }
+        }
+
+        /**
+         * Send all the messages of the log, in order.
+         *
+         * @return number of messages sent
+         */
+        private int drain() throws IOException, GeneralSecurityException, InterruptedException,
+                ExecutionException, TimeoutException {
+            synchronized (drainLock) {
+                int sent = 0;
+                while (true) {
+                    Position end = committed;
+                    List<Record> records = readRecords(end);
+                    if (!records.isEmpty()) {
+                        sent += sendRecords(records);
+                    } else if (readSegment < end.segment) {
+                        nextSegment();
+                    } else {
+                        return sent;
+                    }
+                }
+            }
+        }
+
+        private int sendRecords(List<Record> records) throws IOException, GeneralSecurityException,
+                InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return send(records);
+            } catch (AmqpConnectException | TimeoutException e) {
+                // broker unavailable, retried without limit
+                throw e;
+            } catch (AmqpException | IllegalStateException | ExecutionException e) {
+                if (failed(records, e)) {
+                    return 0;
+                }
+                throw e;
+            } finally {
+                // the records confirmed before a failure are not sent again
+                saveCheckpoint();
+            }
+        }
+
+        /**
+         * Count a failure of the record at the head of the queue, and move it to the dead-letter file once it failed
+         * {@link #MAX_ATTEMPTS} times.
+         *
+         * @return true if the record was moved
+         */
+        private boolean failed(List<Record> records, Exception cause) throws IOException {
+            Record head = records.stream().filter(record -> record.end > readPosition).findFirst().orElse(null);
+            if (head == null) {
+                return false;
+            }
+
+            if (records.size() > 1) {
+                isolateUntil = new Position(readSegment, records.get(records.size() - 1).end);
+            }
+
+            Position position = new Position(readSegment, readPosition);
+            if (!position.equals(attemptsHead)) {
+                attemptsHead = position;
+                attempts = 0;
+            }
+            attempts++;
+            if (attempts < MAX_ATTEMPTS) {
+                return false;
+            }
+
+            Entry entry = decode(head.payload);
+            try (FileChannel deadLetter = FileChannel.open(directory.toPath().resolve(DEAD_LETTER),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                write(deadLetter, head.payload);
+                deadLetter.force(false);
+            }
+            LOGGER.warn("Outbox message {} to {} failed {} times, moved to {} : {}",
+                    entry.message.getMessageProperties().getMessageId(), entry.exchange, attempts,
+                    directory.toPath().resolve(DEAD_LETTER), cause.getMessage());
+            RabbitMqMetrics.publish(entry.rabbitName, entry.exchange).failed();
+
+            readPosition = head.end;
+            attemptsHead = null;
+            attempts = 0;
+            return true;
+        }
+
+        private List<Record> readRecords(Position end) throws IOException {
+            if (readChannel == null) {
+                Path path = segmentPath(readSegment);
+                if (!Files.exists(path)) {
+                    return new ArrayList<>();
+                }
+                readChannel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+
+            long limit = readSegment == end.segment ? end.position : readChannel.size();
+
+            int batchSize = DRAIN_BATCH_SIZE;
+            if (isolateUntil != null) {
+                if (readSegment == isolateUntil.segment && readPosition < isolateUntil.position) {
+                    batchSize = 1;
+                } else {
+                    isolateUntil = null;
+                }
+            }
+
+            List<Record> records = new ArrayList<>();
+            long position = readPosition;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (records.size() < batchSize && position + HEADER_SIZE <= limit) {
+                header.clear();
+                readFully(readChannel, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+
+                if (length < 0 || position + HEADER_SIZE + length > limit) {
+                    LOGGER.error("Corrupted outbox segment {} at {}, skipping its end", readSegment, position);
+                    position = limit;
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(readChannel, payload, position + HEADER_SIZE);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.error("Corrupted outbox segment {} at {}, skipping its end", readSegment, position);
+                    position = limit;
+                    break;
+                }
+
+                position += HEADER_SIZE + length;
+                records.add(new Record(payload.array(), position));
+            }
+
+            if (records.isEmpty() && position != readPosition) {
+                // corrupted end skipped
+                readPosition = position;
+                saveCheckpoint();
+            }
+
+            return records;
+        }
+
+        private void nextSegment() throws IOException {
+            closeQuietly(readChannel);
+            readChannel = null;
+
+            Files.deleteIfExists(segmentPath(readSegment));
+
+            readSegment = listSegments(directory).stream()
+                    .filter(segment -> segment > readSegment)
+                    .findFirst()
+                    .orElse(readSegment + 1);
+            readPosition = 0;
+            saveCheckpoint();
+        }
+
+        // consecutive records of the same config are sent on one channel, then all their confirms are awaited
+        private int send(List<Record> records) throws IOException, GeneralSecurityException, InterruptedException,
+                ExecutionException, TimeoutException {
+            List<Entry> entries = new ArrayList<>(records.size());
+            for (Record record : records) {
+                entries.add(decode(record.payload));
+            }
+
+            int sent = 0;
+            int from = 0;
+            while (from < entries.size()) {
+                String rabbitName = entries.get(from).rabbitName;
+                int to = from + 1;
+                while (to < entries.size() && entries.get(to).rabbitName.equals(rabbitName)) {
+                    to++;
+                }
+                List<Entry> group = entries.subList(from, to);
+
+                RabbitTemplate rabbitTemplate = templates.get(rabbitName);
+                if (rabbitTemplate == null) {
+                    LOGGER.warn("Unknown rabbit config : {}, {} messages dropped from outbox", rabbitName,
+                            group.size());
+                    group.forEach(entry -> RabbitMqMetrics.publish(rabbitName, entry.exchange).failed());
+                    readPosition = records.get(to - 1).end;
+                } else {
+                    acquire(rabbitName, group);
+
+                    List<CorrelationData> correlations = rabbitTemplate.invoke(operations -> {
+                        List<CorrelationData> pending = new ArrayList<>(group.size());
+                        for (Entry entry : group) {
+                            String messageId = entry.message.getMessageProperties().getMessageId();
+                            CorrelationData correlationData = new CorrelationData(
+                                    messageId != null ? messageId : UUID.randomUUID().toString());
+                            operations.send(entry.exchange, entry.routingKey, entry.message, correlationData);
+                            pending.add(correlationData);
+                        }
+                        return pending;
+                    });
+
+                    if (correlations == null) {
+                        throw new IllegalStateException("No message sent to " + rabbitName);
+                    }
+                    // confirms come back in order : the drain resumes after the last one confirmed
+                    for (int i = 0; i < correlations.size(); i++) {
+                        Confirm confirm = correlations.get(i).getFuture().get(CONFIRM_TIMEOUT_S, TimeUnit.SECONDS);
+                        if (!confirm.isAck()) {
+                            throw new IllegalStateException("Message rejected by broker : " + confirm.getReason());
+                        }
+                        Entry entry = group.get(i);
+                        RabbitMqMetrics.publish(rabbitName, entry.exchange).sent(1, entry.message.getBody().length);
+                        readPosition = records.get(from + i).end;
+                        sent++;
+                    }
+                }
+
+                from = to;
+            }
+
+            return sent;
+        }
+
+        /**
+         * Wait for the rate limits and the flow control of the config.
+         *
+         * @throws TimeoutException if the group can not be sent before the publish timeout : the broker holds the
+         *                          queue back, the records did not fail
+         */
+        private void acquire(String rabbitName, List<Entry> group) throws GeneralSecurityException,
+                InterruptedException, TimeoutException {
+            PublishGate gate = templates.gate(rabbitName);
+            if (gate == null) {
+                return;
+            }
+
+            long bytes = 0;
+            for (Entry entry : group) {
+                bytes += entry.message.getBody().length;
+            }
+            try {
+                gate.acquire(group.size(), bytes, null);
+            } catch (IllegalStateException e) {
+                TimeoutException timeout = new TimeoutException(e.getMessage());
+                timeout.initCause(e);
+                throw timeout;
+            }
+        }
+
+        /**
+         * @return position of the end of the last complete record, truncating the segment after it
+         */
+        private long recover(FileChannel channel) throws IOException {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                position += HEADER_SIZE + length;
+            }
+
+            if (position < size) {
+                LOGGER.warn("Truncating incomplete outbox record at {} in segment {}", position, writeSegment);
+                channel.truncate(position);
+            }
+
+            return position;
+        }
+
+        private void loadCheckpoint(long firstSegment) throws IOException {
+            Path checkpoint = directory.toPath().resolve(CHECKPOINT);
+            readSegment = firstSegment;
+            readPosition = 0;
+            if (Files.exists(checkpoint)) {
+                String[] values = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(" ");
+                if (values.length == 2) {
+                    readSegment = Long.parseLong(values[0]);
+                    readPosition = Long.parseLong(values[1]);
+                }
+            }
+        }
+
+        private void saveCheckpoint() throws IOException {
+            Path checkpoint = directory.toPath().resolve(CHECKPOINT);
+            Path tmp = directory.toPath().resolve(CHECKPOINT + ".tmp");
+            Files.write(tmp, (readSegment + " " + readPosition).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private Path segmentPath(long segment) {
+            return directory.toPath().resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+        }
+    }
+
+    private static List<Long> listSegments(File directory) {
+        List<Long> segments = new ArrayList<>();
+        String[] names = directory.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring unexpected file in outbox : {}", name);
+                }
+            }
+        }
+        segments.sort(Long::compare);
+        return segments;
+    }
+
+    private static void write(FileChannel channel, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of outbox segment");
+            }
+            offset += read;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error while closing outbox segment", e);
+            }
+        }
+    }
+
+    static byte[] encode(String rabbitName, String exchange, String routingKey, Message message) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        byte[] body = message.getBody();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(rabbitName);
+            writeNullable(out, exchange);
+            writeNullable(out, routingKey);
+
+            writeNullable(out, properties.getContentType());
+            writeNullable(out, properties.getContentEncoding());
+            writeNullable(out, properties.getMessageId());
+            writeNullable(out, properties.getExpiration());
+            writeNullable(out, properties.getDeliveryMode() != null ? properties.getDeliveryMode().name() : null);
+            out.writeInt(properties.getPriority() != null ? properties.getPriority() : -1);
+
+            Map<String, Object> headers = properties.getHeaders();
+            out.writeInt(headers.size());
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                writeHeaderValue(out, header.getValue());
+            }
+
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static Entry decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported outbox record version : " + version);
+            }
+
+            String rabbitName = in.readUTF();
+            String exchange = readNullable(in);
+            String routingKey = readNullable(in);
+
+            MessageProperties properties = new MessageProperties();
+            properties.setContentType(readNullable(in));
+            properties.setContentEncoding(readNullable(in));
+            properties.setMessageId(readNullable(in));
+            properties.setExpiration(readNullable(in));
+            String deliveryMode = readNullable(in);
+            if (deliveryMode != null) {
+                properties.setDeliveryMode(MessageDeliveryMode.valueOf(deliveryMode));
+            }
+            int priority = in.readInt();
+            if (priority >= 0) {
+                properties.setPriority(priority);
+            }
+
+            Map<String, Object> headers = new LinkedHashMap<>();
+            int headerCount = in.readInt();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), readHeaderValue(in));
+            }
+            headers.forEach(properties::setHeader);
+
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            properties.setContentLength(body.length);
+
+            return new Entry(rabbitName, exchange, routingKey, new Message(body, properties));
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Write a header value with its type : strings, numbers and booleans keep their type when sent from the outbox,
+     * any other value is written as its string.
+     */
+    private static void writeHeaderValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            out.writeByte(STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static Object readHeaderValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IOException("Unsupported outbox header type : " + type);
+        }
+    }
+
+    static final class Entry {
+
+        final String rabbitName;
+        final String exchange;
+        final String routingKey;
+        final Message message;
+
+        private Entry(String rabbitName, String exchange, String routingKey, Message message) {
+            this.rabbitName = rabbitName;
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.message = message;
+        }
+    }
+
+    private static final class Record {
+
+        private final byte[] payload;
+        private final long end;
+
+        private Record(byte[] payload, long end) {
+            this.payload = payload;
+            this.end = end;
+        }
+    }
+
+    private static final class Position {
+
+        private final long segment;
+        private final long position;
+
+        private Position(long segment, long position) {
+            this.segment = segment;
+            this.position = position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Position that = (Position) o;
+            return segment == that.segment && position == that.position;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, position);
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import fr.frogdevelopment.jenkins.plugins.mq.PublishResult.TargetResult;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.MessageDeliveryMode;
+
+/**
+ * Pipeline step publishing a message without holding the CPS VM thread : the message is built and sent on a
+ * background thread as by the build step, and the step completes when the message is sent, or from the broker
+ * callback when it is confirmed with {@link #isConfirm()}, so that a step waiting for its confirm holds no thread.<br>
+ * The step returns a map with the <code>messageId</code>, the <code>latency</code> in ms and whether the message was
+ * <code>confirmed</code>, with additional {@link #setTargets(String) targets}, the confirm of each target, and in
+ * {@link #setBatch(boolean) batch} mode, the number of <code>messages</code> instead of their id. A message whose
+ * {@link #setIdempotencyKey(String) idempotency key} was already published is not sent again, and the step returns
+ * <code>duplicate</code> as true.
+ */
+@SuppressFBWarnings("WeakerAccess")
+public class RabbitMqPublishStep extends Step {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqPublishStep.class);
+
+    private static final int PUBLISHER_THREADS = 16;
+
+    // shared by all the pipeline publishes to build and send the messages, threads are released when idle
+    private static final ThreadPoolExecutor PUBLISHER;
+
+    static {
+        PUBLISHER = new ThreadPoolExecutor(PUBLISHER_THREADS, PUBLISHER_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "RabbitMqPublishStep"));
+        PUBLISHER.allowCoreThreadTimeOut(true);
+    }
+
+    private final String rabbitName;
+    private final String exchange;
+    private final String data;
+    private String routingKey;
+    private String targets;
+    private boolean toJson;
+    private PayloadType payloadType = PayloadType.ESCAPED_STRING;
+    private PayloadFormat payloadFormat = PayloadFormat.JSON;
+    private boolean confirm;
+    private int confirmTimeout = RabbitMqBuilder.DEFAULT_CONFIRM_TIMEOUT;
+    private boolean batch;
+    private int batchSize = RabbitMqBuilder.DEFAULT_BATCH_SIZE;
+    private int batchBytes = RabbitMqBuilder.DEFAULT_BATCH_BYTES;
+    private boolean outbox;
+    private Compression compression = Compression.NONE;
+    private int compressionThreshold = RabbitMqBuilder.DEFAULT_COMPRESSION_THRESHOLD;
+    private String file;
+    private boolean fileSubstitution;
+    private boolean onAgent;
+    private LogMode logMode = LogMode.FULL;
+    private int logPreviewBytes = RabbitMqBuilder.DEFAULT_LOG_PREVIEW_BYTES;
+    private MessageDeliveryMode deliveryMode = MessageDeliveryMode.PERSISTENT;
+    private String expiration;
+    private int priority;
+    private String contentType;
+    private String messageId;
+    private String headers;
+    private String idempotencyKey;
+    private int dedupWindow = RabbitMqBuilder.DEFAULT_DEDUP_WINDOW;
+
+    @DataBoundConstructor
+    public RabbitMqPublishStep(String rabbitName, String exchange, String data) {
+        this.rabbitName = rabbitName;
+        this.exchange = exchange;
+        this.data = data;
+    }
+
+    public String getRabbitName() {
+        return rabbitName;
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    @DataBoundSetter
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    public String getTargets() {
+        return targets;
+    }
+
+    @DataBoundSetter
+    public void setTargets(String targets) {
+        this.targets = targets;
+    }
+
+    public boolean isToJson() {
+        return toJson;
+    }
+
+    @DataBoundSetter
+    public void setToJson(boolean toJson) {
+        this.toJson = toJson;
+    }
+
+    public PayloadType getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * @param payloadType how the data, or the file, is written to the message body, as
+     *                    {@link PayloadType#BINARY} the data being base64 encoded
+     */
+    @DataBoundSetter
+    public void setPayloadType(PayloadType payloadType) {
+        this.payloadType = payloadType != null ? payloadType : PayloadType.ESCAPED_STRING;
+    }
+
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat serialization format of the <i>key=value</i> data converted to JSON, JSON by default
+     */
+    @DataBoundSetter
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat != null ? payloadFormat : PayloadFormat.JSON;
+    }
+
+    /**
+     * @deprecated use {@link #getPayloadType()}
+     */
+    @Deprecated
+    public boolean getConversion() {
+        return payloadType == PayloadType.ESCAPED_STRING;
+    }
+
+    /**
+     * @deprecated use {@link #setPayloadType(PayloadType)}
+     */
+    @Deprecated
+    @DataBoundSetter
+    public void setConversion(boolean conversion) {
+        this.payloadType = PayloadType.of(conversion);
+    }
+
+    public boolean isConfirm() {
+        return confirm;
+    }
+
+    @DataBoundSetter
+    public void setConfirm(boolean confirm) {
+        this.confirm = confirm;
+    }
+
+    public int getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    @DataBoundSetter
+    public void setConfirmTimeout(int confirmTimeout) {
+        this.confirmTimeout = confirmTimeout > 0 ? confirmTimeout : RabbitMqBuilder.DEFAULT_CONFIRM_TIMEOUT;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    @DataBoundSetter
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @DataBoundSetter
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : RabbitMqBuilder.DEFAULT_BATCH_SIZE;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    @DataBoundSetter
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes > 0 ? batchBytes : RabbitMqBuilder.DEFAULT_BATCH_BYTES;
+    }
+
+    public boolean isOutbox() {
+        return outbox;
+    }
+
+    @DataBoundSetter
+    public void setOutbox(boolean outbox) {
+        this.outbox = outbox;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    @DataBoundSetter
+    public void setCompression(Compression compression) {
+        this.compression = compression != null ? compression : Compression.NONE;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @DataBoundSetter
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    @DataBoundSetter
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public boolean isFileSubstitution() {
+        return fileSubstitution;
+    }
+
+    @DataBoundSetter
+    public void setFileSubstitution(boolean fileSubstitution) {
+        this.fileSubstitution = fileSubstitution;
+    }
+
+    public boolean isOnAgent() {
+        return onAgent;
+    }
+
+    @DataBoundSetter
+    public void setOnAgent(boolean onAgent) {
+        this.onAgent = onAgent;
+    }
+
+    public LogMode getLogMode() {
+        return logMode;
+    }
+
+    @DataBoundSetter
+    public void setLogMode(LogMode logMode) {
+        this.logMode = logMode != null ? logMode : LogMode.FULL;
+    }
+
+    public int getLogPreviewBytes() {
+        return logPreviewBytes;
+    }
+
+    @DataBoundSetter
+    public void setLogPreviewBytes(int logPreviewBytes) {
+        this.logPreviewBytes = logPreviewBytes >= 0 ? logPreviewBytes : RabbitMqBuilder.DEFAULT_LOG_PREVIEW_BYTES;
+    }
+
+    public MessageDeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    @DataBoundSetter
+    public void setDeliveryMode(MessageDeliveryMode deliveryMode) {
+        this.deliveryMode = deliveryMode;
+    }
+
+    public String getExpiration() {
+        return expiration;
+    }
+
+    @DataBoundSetter
+    public void setExpiration(String expiration) {
+        this.expiration = expiration;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @DataBoundSetter
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    @DataBoundSetter
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getHeaders() {
+        return headers;
+    }
+
+    @DataBoundSetter
+    public void setHeaders(String headers) {
+        this.headers = headers;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    @DataBoundSetter
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public int getDedupWindow() {
+        return dedupWindow;
+    }
+
+    @DataBoundSetter
+    public void setDedupWindow(int dedupWindow) {
+        this.dedupWindow = dedupWindow;
+    }
+
+    // messages are built and sent the same way than the build step
+    private RabbitMqBuilder toBuilder() {
+        RabbitMqBuilder builder = new RabbitMqBuilder(rabbitName, exchange, data);
+        builder.setRoutingKey(routingKey);
+        builder.setTargets(targets);
+        builder.setToJson(toJson);
+        builder.setPayloadType(payloadType);
+        builder.setPayloadFormat(payloadFormat);
+        builder.setConfirm(confirm);
+        builder.setConfirmTimeout(confirmTimeout);
+        builder.setBatch(batch);
+        builder.setBatchSize(batchSize);
+        builder.setBatchBytes(batchBytes);
+        builder.setOutbox(outbox);
+        builder.setCompression(compression);
+        builder.setCompressionThreshold(compressionThreshold);
+        builder.setFile(file);
+        builder.setFileSubstitution(fileSubstitution);
+        builder.setOnAgent(onAgent);
+        builder.setLogMode(logMode);
+        builder.setLogPreviewBytes(logPreviewBytes);
+        builder.setDeliveryMode(deliveryMode);
+        builder.setExpiration(expiration);
+        builder.setPriority(priority);
+        builder.setContentType(contentType);
+        builder.setMessageId(messageId);
+        builder.setHeaders(headers);
+        builder.setIdempotencyKey(idempotencyKey);
+        builder.setDedupWindow(dedupWindow);
+        return builder;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    static class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient RabbitMqPublishStep step;
+        private transient volatile Future<?> task;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        Execution(RabbitMqPublishStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() {
+            task = PUBLISHER.submit(this::publish);
+            return false;
+        }
+
+        private void publish() {
+            PrintStream console = null;
+            try {
+                TaskListener listener = getContext().get(TaskListener.class);
+                console = listener.getLogger();
+                EnvVars env = getContext().get(EnvVars.class);
+                // only available inside a node block
+                FilePath workspace = getContext().get(FilePath.class);
+
+                RabbitMqBuilder builder = step.toBuilder();
+                // the environment of the step, with the variables of withEnv blocks
+                BuildVariables variables = new BuildVariables(getContext().get(Run.class), run -> env);
+                Map<String, String> buildParameters = builder.resolveVariables(variables);
+
+                // built and sent as by the build step, on this thread rather than the CPS VM thread, the confirms
+                // complete the step without holding it
+                long start = System.nanoTime();
+                List<PublishTarget> targets = builder.getPublishTargets();
+                PrintStream logger = console;
+                builder.publishAsync(workspace, buildParameters, new EnvVars(buildParameters), listener)
+                        .whenComplete((result, failure) -> {
+                            if (failure != null) {
+                                fail(logger, RabbitMqBuilder.unwrap(failure));
+                            } else {
+                                succeed(logger, result, targets, start);
+                            }
+                        });
+            } catch (Exception e) {
+                fail(console, e);
+            }
+        }
+
+        private void succeed(PrintStream console, PublishResult result, List<PublishTarget> targets, long start) {
+            if (completed.compareAndSet(false, true)) {
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!result.duplicate) {
+                    console.println("Published in " + latency + " ms");
+                }
+
+                Map<String, Object> values = new HashMap<>();
+                values.put("messageId", result.messageId);
+                values.put("latency", latency);
+                values.put("confirmed", result.confirmed);
+                if (result.duplicate) {
+                    values.put("duplicate", true);
+                }
+                if (result.messages > 1) {
+                    values.put("messages", result.messages);
+                }
+                if (targets.size() > 1 && result.targets.size() == targets.size()) {
+                    List<Map<String, Object>> results = new ArrayList<>(targets.size());
+                    for (int i = 0; i < targets.size(); i++) {
+                        PublishTarget target = targets.get(i);
+                        TargetResult outcome = result.targets.get(i);
+                        Map<String, Object> targetResult = new HashMap<>();
+                        targetResult.put("exchange", target.exchange);
+                        targetResult.put("routingKey", StringUtils.defaultString(target.routingKey));
+                        targetResult.put("confirmed", outcome.confirmed);
+                        if (outcome.confirmed) {
+                            targetResult.put("latency", outcome.latency);
+                        }
+                        results.add(targetResult);
+                    }
+                    values.put("targets", results);
+                }
+                getContext().onSuccess(values);
+            }
+        }
+
+        private void fail(PrintStream console, Throwable cause) {
+            if (completed.compareAndSet(false, true)) {
+                LOGGER.error("Error while sending to Rabbit-MQ", cause);
+                if (console != null) {
+                    console.println("Error while sending to Rabbit-MQ : " + ExceptionUtils.getMessage(cause));
+                }
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) {
+            Future<?> publishing = task;
+            if (publishing != null) {
+                publishing.cancel(true);
+            }
+            if (completed.compareAndSet(false, true)) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            // the message state is lost with the restart
+            getContext().onFailure(new AbortException("Publish to Rabbit-MQ interrupted by a restart"));
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<>();
+            context.add(Run.class);
+            context.add(TaskListener.class);
+            context.add(EnvVars.class);
+            return Collections.unmodifiableSet(context);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "rabbitMQPublish";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Publish to Rabbit-MQ without blocking";
+        }
+
+        public ListBoxModel doFillRabbitNameItems() {
+            return Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class).doFillRabbitNameItems();
+        }
+
+        public FormValidation doCheckHeaders(@QueryParameter String value) {
+            return Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class).doCheckHeaders(value);
+        }
+
+        public FormValidation doCheckTargets(@QueryParameter String value) {
+            return Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class).doCheckTargets(value);
+        }
+
+        public FormValidation doCheckIdempotencyKey(@QueryParameter String value, @QueryParameter boolean onAgent) {
+            return Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class).doCheckIdempotencyKey(value, onAgent);
+        }
+    }
+}
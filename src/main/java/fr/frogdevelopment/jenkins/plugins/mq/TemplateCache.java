@@ -0,0 +1,49 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of compiled templates, keyed by template text. The least recently used entry is evicted when full.
+ *
+ * @param <T> compiled template type
+ */
+class TemplateCache<T> {
+
+    private final Map<String, T> cache;
+    private final Function<String, T> compiler;
+    // guarded by cache
+    private long compilations;
+
+    TemplateCache(int maxSize, Function<String, T> compiler) {
+        this.compiler = compiler;
+        this.cache = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    T get(String template) {
+        synchronized (cache) {
+            T compiled = cache.get(template);
+            if (compiled == null) {
+                compiled = compiler.apply(template);
+                cache.put(template, compiled);
+                compilations++;
+            }
+            return compiled;
+        }
+    }
+
+    /**
+     * @return number of templates compiled since created, ie: cache misses
+     */
+    long getCompilations() {
+        synchronized (cache) {
+            return compilations;
+        }
+    }
+}
@@ -1,20 +1,15 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
-import net.sf.json.JSONObject;
-
-import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
 
 abstract class Utils {
 
-    private static final Pattern PARAM_PATTERN = Pattern.compile("\\$\\{?(?<param>\\w+)}?");
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(Utils.class);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
     /**
      * Transform a string with "_" to camelCase string, for Java convention.<br>
@@ -53,70 +48,79 @@ abstract class Utils {
     }
 
     static String getRawMessage(Map<String, String> buildParameters, String message) {
+        return MessageTemplate.compile(message).render(buildParameters);
+    }
 
-        // resolving build data
-        StringBuffer sb = new StringBuffer();
-
-        Matcher matcher = PARAM_PATTERN.matcher(message);
-        while (matcher.find()) {
-            String param = matcher.group("param");
-            if (buildParameters.containsKey(param)) {
-                String replacement = buildParameters.get(param);
-                if (replacement != null) {
-                    matcher.appendReplacement(sb, replacement);
-                } else {
-                    matcher.appendReplacement(sb, "null");
-                }
-            }
+    static String getJsonMessage(Map<String, String> buildParameters, String message) {
+        return KeyValueTemplate.compile(message).render(buildParameters);
+    }
+
+    /**
+     * @param quoted if true, the JSON message is written as a JSON string, as the JSON message converter does
+     * @return UTF-8 encoded JSON message
+     */
+    static byte[] getJsonPayload(Map<String, String> buildParameters, String message, boolean quoted) {
+        return KeyValueTemplate.compile(message).renderJson(buildParameters, quoted);
+    }
+
+    /**
+     * Encode the <i>key=value</i> data of a step, each value being rendered with all its variables.
+     *
+     * @param format serialization format, JSON or binary
+     * @param quoted if true, a JSON message is written as a JSON string, as the JSON message converter does
+     * @return encoded message
+     */
+    static byte[] getStructuredPayload(Map<String, String> variables, String message, PayloadFormat format,
+                                       boolean quoted) {
+        KeyValueTemplate template = KeyValueTemplate.compileExpanded(message);
+        if (format == PayloadFormat.JSON) {
+            return template.renderJson(variables, quoted);
         }
-        matcher.appendTail(sb);
+        return template.renderBinary(variables, format);
+    }
 
-        return sb.toString();
+    /**
+     * @param quoted if true, the message is written as a JSON string, as the JSON message converter does
+     * @return UTF-8 encoded message
+     */
+    static byte[] getRawPayload(Map<String, String> buildParameters, String message, boolean quoted) {
+        String rawMessage = getRawMessage(buildParameters, message);
+        if (quoted) {
+            return JsonPayloadWriter.get(true).text(rawMessage).toByteArray();
+        }
+        return rawMessage.getBytes(StandardCharsets.UTF_8);
     }
 
-    static String getJsonMessage(Map<String, String> buildParameters, String message) {
-        boolean hasError = false;
-
-        // constructing JSON message
-        JSONObject jsonObject = new JSONObject();
-
-        String[] lines = message.split("\\r?\\n");
-        if (lines.length > 0) {
-            for (String line : lines) {
-                String[] splitLine = line.split("=");
-                if (splitLine.length == 2) {
-                    String paramKey = splitLine[0];
-                    String paramValue = splitLine[1];
-                    if (StringUtils.isNotBlank(paramKey)) {
-                        Matcher matcher = PARAM_PATTERN.matcher(paramValue);
-                        if (matcher.find()) {
-                            String param = matcher.group("param");
-                            if (buildParameters.containsKey(param)) {
-                                paramValue = buildParameters.get(param);
-                            }
-                        }
-
-                        LOGGER.info("\t- " + paramKey + "=" + paramValue);
-                        if (paramValue != null) {
-                            jsonObject.put(toJava(paramKey), paramValue);
-                        } else {
-                            jsonObject.put(toJava(paramKey), "null");
-                        }
-                    } else {
-                        LOGGER.info("\t- Empty key for line : {}", line);
-                        hasError = true;
-                    }
-                } else {
-                    LOGGER.error("\t- Incorrect data format : {}", line);
-                    hasError = true;
-                }
-            }
+    /**
+     * @param message base64 encoded bytes, line breaks and spaces being ignored
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the message is not base64 encoded
+     */
+    static byte[] getBinaryPayload(Map<String, String> buildParameters, String message) {
+        String encoded = getRawMessage(buildParameters, message);
+        try {
+            return Base64.getDecoder().decode(StringUtils.deleteWhitespace(encoded));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Incorrect binary data, expected base64 : " + e.getMessage(), e);
         }
+    }
 
-        if (hasError) {
-            throw new IllegalStateException("Incorrect data");
+    /**
+     * @return the SHA-256 digest of the bytes, in lower case hexadecimal
+     */
+    static String sha256(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // always available
+            throw new IllegalStateException(e);
         }
 
-        return jsonObject.toString();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,89 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class BinaryPayloadWriterTest {
+
+    @Test
+    public void test_cbor() {
+        // call
+        byte[] bytes = BinaryPayloadWriter.get(PayloadFormat.CBOR)
+                .beginMap(4)
+                .value("a").value("b")
+                .value("n").nullValue()
+                .value("i").value(1000)
+                .value("l").beginArray(3).value(-500).value(true).value(1.5)
+                .toByteArray();
+
+        // assertions
+        Assertions.assertThat(bytes).isEqualTo(bytes(
+                0xA4,
+                0x61, 'a', 0x61, 'b',
+                0x61, 'n', 0xF6,
+                0x61, 'i', 0x19, 0x03, 0xE8,
+                0x61, 'l', 0x83, 0x39, 0x01, 0xF3, 0xF5, 0xFB, 0x3F, 0xF8, 0, 0, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void test_messagePack() {
+        // call
+        byte[] bytes = BinaryPayloadWriter.get(PayloadFormat.MESSAGE_PACK)
+                .beginMap(4)
+                .value("a").value("b")
+                .value("n").nullValue()
+                .value("i").value(1000)
+                .value("l").beginArray(3).value(-500).value(-1).value(false)
+                .toByteArray();
+
+        // assertions
+        Assertions.assertThat(bytes).isEqualTo(bytes(
+                0x84,
+                0xA1, 'a', 0xA1, 'b',
+                0xA1, 'n', 0xC0,
+                0xA1, 'i', 0xCD, 0x03, 0xE8,
+                0xA1, 'l', 0x93, 0xD1, 0xFE, 0x0C, 0xFF, 0xC2));
+    }
+
+    @Test
+    public void test_utf8_strings() {
+        String value = "é€😀 and a long enough string to need a length byte";
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+
+        // call
+        byte[] cbor = BinaryPayloadWriter.get(PayloadFormat.CBOR).value(value).toByteArray();
+        byte[] messagePack = BinaryPayloadWriter.get(PayloadFormat.MESSAGE_PACK).value(value).toByteArray();
+
+        // assertions
+        Assertions.assertThat(cbor[0] & 0xFF).isEqualTo(0x78);
+        Assertions.assertThat(cbor[1] & 0xFF).isEqualTo(utf8.length);
+        Assertions.assertThat(Arrays.copyOfRange(cbor, 2, cbor.length)).isEqualTo(utf8);
+        Assertions.assertThat(messagePack[0] & 0xFF).isEqualTo(0xD9);
+        Assertions.assertThat(messagePack[1] & 0xFF).isEqualTo(utf8.length);
+        Assertions.assertThat(Arrays.copyOfRange(messagePack, 2, messagePack.length)).isEqualTo(utf8);
+    }
+
+    @Test
+    public void test_KeyValueTemplate_nested_json() {
+        // call
+        byte[] bytes = KeyValueTemplate.compile("STATUS=$STATUS\nTAGS=[1,\"x\"]")
+                .renderBinary(Collections.singletonMap("STATUS", "ok"), PayloadFormat.MESSAGE_PACK);
+
+        // assertions
+        Assertions.assertThat(bytes).isEqualTo(bytes(
+                0x82,
+                0xA6, 's', 't', 'a', 't', 'u', 's', 0xA2, 'o', 'k',
+                0xA4, 't', 'a', 'g', 's', 0x92, 0x01, 0xA1, 'x'));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
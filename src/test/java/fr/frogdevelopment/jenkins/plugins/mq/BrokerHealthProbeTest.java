@@ -0,0 +1,99 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.BrokerHealth.NodeHealth;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Test;
+
+public class BrokerHealthProbeTest {
+
+    @After
+    public void clear() {
+        BrokerHealthProbe.clear();
+    }
+
+    @Test
+    public void test_status() {
+        NodeHealth up = NodeHealth.up("node-1:5672", TimeUnit.MILLISECONDS.toNanos(12));
+        NodeHealth down = NodeHealth.down("node-2:5672", "Connection refused");
+
+        // call & assertions
+        Assertions.assertThat(new BrokerHealth(Collections.singletonList(up), 0).getStatus())
+                .isEqualTo(BrokerHealth.Status.UP);
+        Assertions.assertThat(new BrokerHealth(Arrays.asList(up, down), 0).getStatus())
+                .isEqualTo(BrokerHealth.Status.DEGRADED);
+        Assertions.assertThat(new BrokerHealth(Collections.singletonList(down), 0).getStatus())
+                .isEqualTo(BrokerHealth.Status.DOWN);
+        Assertions.assertThat(new BrokerHealth(Arrays.asList(up, down), 0).describe())
+                .isEqualTo("DEGRADED, node-1:5672 : 12 ms, node-2:5672 : Connection refused");
+    }
+
+    @Test
+    public void test_checkAvailable_down() {
+        // nothing listening on this port
+        RabbitConfig rabbitConfig = new RabbitConfig("test", "localhost", 1, "guest", "guest", false, "/");
+        long probedAt = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        BrokerHealthProbe.update(rabbitConfig, new BrokerHealth(
+                        Collections.singletonList(NodeHealth.down("localhost:1", "Connection refused")), probedAt),
+                new RabbitMqConnections());
+
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> BrokerHealthProbe.checkAvailable(rabbitConfig, new RabbitMqConnections()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Rabbit-MQ config test is down, probed 0s ago")
+                .hasMessageContaining("Connection refused");
+        // the cached status was probed again
+        Assertions.assertThat(BrokerHealthProbe.getHealth(rabbitConfig).getCheckedAt()).isGreaterThan(probedAt);
+    }
+
+    @Test
+    public void test_checkAvailable_recently_down() {
+        RabbitConfig rabbitConfig = new RabbitConfig("test", "localhost", 1, "guest", "guest", false, "/");
+        BrokerHealthProbe.update(rabbitConfig, new BrokerHealth(
+                        Collections.singletonList(NodeHealth.down("localhost:1", "Probed just now")),
+                        System.currentTimeMillis()),
+                new RabbitMqConnections());
+
+        // call & assertions : failed at once, without probing again
+        Assertions.assertThatThrownBy(() -> BrokerHealthProbe.checkAvailable(rabbitConfig, new RabbitMqConnections()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Probed just now");
+    }
+
+    @Test
+    public void test_probeAsync_shared() throws Exception {
+        // nothing listening on this port
+        RabbitConfig rabbitConfig = new RabbitConfig("test", "localhost", 1, "guest", "guest", false, "/");
+        RabbitMqConnections connections = new RabbitMqConnections();
+
+        // call
+        CompletableFuture<BrokerHealth> probing = BrokerHealthProbe.probeAsync(rabbitConfig, connections);
+        CompletableFuture<BrokerHealth> joined = BrokerHealthProbe.probeAsync(rabbitConfig, connections);
+
+        // assertions : the second call shares the probe, unless it already ended
+        Assertions.assertThat(joined == probing || probing.isDone()).isTrue();
+        BrokerHealth health = probing.get(10, TimeUnit.SECONDS);
+        Assertions.assertThat(health.isDown()).isTrue();
+        Assertions.assertThat(BrokerHealthProbe.getHealth(rabbitConfig)).isSameAs(health);
+    }
+
+    @Test
+    public void test_getHealth_ignored() throws InterruptedException {
+        RabbitConfig rabbitConfig = new RabbitConfig("test", "host", 5672, "guest", "guest", false, "/");
+        BrokerHealthProbe.update(rabbitConfig, new BrokerHealth(
+                        Collections.singletonList(NodeHealth.down("host:5672", "Connection refused")),
+                        System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)),
+                new RabbitMqConnections());
+        RabbitConfig edited = new RabbitConfig("test", "other-host", 5672, "guest", "guest", false, "/");
+
+        // call & assertions : too old, or probed with other settings
+        Assertions.assertThat(BrokerHealthProbe.getHealth(rabbitConfig)).isNull();
+        Assertions.assertThat(BrokerHealthProbe.getHealth(edited)).isNull();
+        BrokerHealthProbe.checkAvailable(rabbitConfig, new RabbitMqConnections());
+    }
+}
@@ -0,0 +1,82 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.Configs;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.model.FreeStyleProject;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class BuildEventListenerTest {
+
+    private static final RabbitConfig RABBIT_CONFIG = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest", "guest", false, "/");
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void test_build_events() throws Exception {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+        // operations are executed on the template itself
+        Mockito.doAnswer(invocation -> {
+            RabbitOperations.OperationsCallback<?> callback = invocation.getArgument(0);
+            return callback.doInRabbit(mockRabbitTemplate);
+        }).when(mockRabbitTemplate).invoke(Mockito.any(RabbitOperations.OperationsCallback.class));
+
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class)
+                .setConfigs(new Configs(Collections.singletonList(RABBIT_CONFIG)));
+
+        RabbitMqEventsConfiguration configuration = RabbitMqEventsConfiguration.get();
+        configuration.setRabbitNames("rabbit-test");
+        configuration.setExchange("FD-events");
+        configuration.setJobFilter("team-a-.*");
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("team-a-job");
+        FreeStyleProject ignored = jenkinsRule.createFreeStyleProject("team-b-job");
+
+        // call
+        jenkinsRule.buildAndAssertSuccess(ignored);
+        jenkinsRule.buildAndAssertSuccess(project);
+
+        // assertions : events of the matching job only, in order
+        ArgumentCaptor<String> routingKeys = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Message> messages = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate, Mockito.timeout(10_000).times(3))
+                .send(Mockito.eq("FD-events"), routingKeys.capture(), messages.capture());
+
+        Assertions.assertThat(routingKeys.getAllValues())
+                .containsExactly("jenkins.build.started", "jenkins.build.completed", "jenkins.build.finalized");
+
+        List<Message> events = messages.getAllValues();
+        Assertions.assertThat(new String(events.get(0).getBody(), StandardCharsets.UTF_8))
+                .startsWith("{\"event\":\"started\",\"job\":\"team-a-job\",\"number\":1,")
+                .doesNotContain("result");
+        Assertions.assertThat(new String(events.get(1).getBody(), StandardCharsets.UTF_8))
+                .startsWith("{\"event\":\"completed\",\"job\":\"team-a-job\",\"number\":1,")
+                .contains("\"result\":\"SUCCESS\"");
+    }
+
+    @Test
+    public void test_disabled_without_rabbit_names() {
+        RabbitMqEventsConfiguration configuration = RabbitMqEventsConfiguration.get();
+        configuration.setExchange("FD-events");
+
+        Assertions.assertThat(configuration.isEnabledFor("team-a-job")).isFalse();
+
+        configuration.setRabbitNames(" rabbit-1, rabbit-2 ,");
+
+        Assertions.assertThat(configuration.isEnabledFor("team-a-job")).isTrue();
+        Assertions.assertThat(configuration.getRabbitNameList()).containsExactly("rabbit-1", "rabbit-2");
+    }
+}
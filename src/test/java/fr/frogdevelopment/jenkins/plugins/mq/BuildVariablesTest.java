@@ -0,0 +1,81 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BuildVariablesTest {
+
+    @Test
+    public void test_resolve_parameters_only() {
+        FreeStyleBuild build = mockBuild(Collections.singletonMap("VERSION", "1.2.3"));
+        AtomicInteger environmentCalls = new AtomicInteger();
+        BuildVariables variables = new BuildVariables(build, run -> {
+            environmentCalls.incrementAndGet();
+            return new EnvVars("JOB_NAME", "job");
+        });
+
+        // call
+        Map<String, String> values = variables.resolve(Arrays.asList("VERSION", "BUILD_USER_ID"));
+
+        // assertions
+        Assertions.assertThat(values)
+                .containsEntry("VERSION", "1.2.3")
+                .containsEntry("BUILD_USER_ID", "user")
+                .hasSize(2);
+        Assertions.assertThat(environmentCalls).hasValue(0);
+    }
+
+    @Test
+    public void test_resolve_environment_once() {
+        FreeStyleBuild build = mockBuild(Collections.emptyMap());
+        AtomicInteger environmentCalls = new AtomicInteger();
+        BuildVariables variables = new BuildVariables(build, run -> {
+            environmentCalls.incrementAndGet();
+            return new EnvVars("JOB_NAME", "job", "BUILD_NUMBER", "42");
+        });
+
+        // call
+        Map<String, String> first = variables.resolve(Arrays.asList("JOB_NAME", "UNKNOWN"));
+        Map<String, String> second = variables.resolve(Arrays.asList("BUILD_NUMBER", "UNKNOWN"));
+
+        // assertions
+        Assertions.assertThat(first).containsOnly(Assertions.entry("JOB_NAME", "job"));
+        Assertions.assertThat(second).containsOnly(Assertions.entry("BUILD_NUMBER", "42"));
+        Assertions.assertThat(environmentCalls).hasValue(1);
+    }
+
+    @Test
+    public void test_resolveAll() {
+        FreeStyleBuild build = mockBuild(Collections.singletonMap("JOB_NAME", "parameter"));
+        BuildVariables variables = new BuildVariables(build, run -> new EnvVars("JOB_NAME", "job", "HOME", "/home"));
+
+        // call
+        Map<String, String> values = variables.resolveAll();
+
+        // assertions : the build parameters take precedence
+        Assertions.assertThat(values)
+                .containsEntry("JOB_NAME", "parameter")
+                .containsEntry("HOME", "/home")
+                .containsEntry("BUILD_USER_NAME", "User");
+    }
+
+    private static FreeStyleBuild mockBuild(Map<String, String> buildVariables) {
+        FreeStyleBuild build = Mockito.mock(FreeStyleBuild.class);
+        Mockito.doReturn(new HashMap<>(buildVariables)).when(build).getBuildVariables();
+
+        Cause.UserIdCause cause = Mockito.mock(Cause.UserIdCause.class);
+        Mockito.doReturn("user").when(cause).getUserId();
+        Mockito.doReturn("User").when(cause).getUserName();
+        Mockito.doReturn(cause).when(build).getCause(Cause.UserIdCause.class);
+        return build;
+    }
+}
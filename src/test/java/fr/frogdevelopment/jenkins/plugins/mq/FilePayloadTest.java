@@ -0,0 +1,89 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.lang.StringUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class FilePayloadTest {
+
+    @Test
+    public void test_raw() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+
+        // call
+        byte[] body = FilePayload.read(new ByteArrayInputStream(content), content.length, false, null);
+
+        // assertions
+        Assertions.assertThat(body).isEqualTo(content);
+    }
+
+    @Test
+    public void test_raw_wrong_length() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+
+        // the file grew, or shrank, since its length was read
+        Assertions.assertThat(FilePayload.read(new ByteArrayInputStream(content), 10, false, null))
+                .isEqualTo(content);
+        Assertions.assertThat(FilePayload.read(new ByteArrayInputStream(content), 200_000, false, null))
+                .isEqualTo(content);
+    }
+
+    @Test
+    public void test_substitution() throws IOException {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("VALUE_NAME", "value_test");
+        variables.put("VALUE_NULL", null);
+
+        String content = "a=$VALUE_NAME b=${VALUE_NAME} c=${VALUE_NULL} d=${UNKNOWN} e=$ f=${} g=$$VALUE_NAME}";
+
+        // call
+        byte[] body = FilePayload.read(stream(content), content.length(), false, variables);
+
+        // assertions : same rendering than the data
+        Assertions.assertThat(new String(body, StandardCharsets.UTF_8))
+                .isEqualTo(Utils.getRawMessage(variables, content));
+    }
+
+    @Test
+    public void test_substitution_across_chunks() throws IOException {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("VALUE_NAME", "value_test");
+
+        // variables split at each position of the chunk boundary
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            content.append(StringUtils.repeat("x", 8 * 1024 - 14 + i)).append("${VALUE_NAME}é");
+        }
+
+        // call
+        byte[] body = FilePayload.read(stream(content.toString()), content.length(), false, variables);
+
+        // assertions
+        Assertions.assertThat(new String(body, StandardCharsets.UTF_8))
+                .isEqualTo(Utils.getRawMessage(variables, content.toString()));
+    }
+
+    @Test
+    public void test_quoted() throws IOException {
+        String content = "{\"key\":\"line 1\nline 2\"}";
+
+        // call
+        byte[] body = FilePayload.read(stream(content), content.length(), true, null);
+
+        // assertions : same payload than the data
+        Assertions.assertThat(body).isEqualTo(Utils.getRawPayload(new HashMap<>(), content, true));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
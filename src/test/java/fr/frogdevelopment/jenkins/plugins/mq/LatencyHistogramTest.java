@@ -0,0 +1,46 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Offset;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void test_bucket_bounds() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int bucket = LatencyHistogram.bucket(micros);
+
+            Assertions.assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(micros);
+            if (bucket > 0) {
+                Assertions.assertThat(LatencyHistogram.upperBound(bucket - 1)).isLessThan(micros);
+            }
+        }
+    }
+
+    @Test
+    public void test_snapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        // call
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        // assertions
+        Assertions.assertThat(snapshot.getCount()).isEqualTo(100);
+        Assertions.assertThat(snapshot.getMean()).isEqualTo(50.5);
+        Assertions.assertThat(snapshot.getMax()).isEqualTo(100);
+        Assertions.assertThat(snapshot.getP50()).isCloseTo(50, Offset.offset(50 * 0.25));
+        Assertions.assertThat(snapshot.getP99()).isCloseTo(99, Offset.offset(99 * 0.25));
+    }
+
+    @Test
+    public void test_empty_snapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        Assertions.assertThat(snapshot.getCount()).isZero();
+        Assertions.assertThat(snapshot.getP99()).isZero();
+    }
+}
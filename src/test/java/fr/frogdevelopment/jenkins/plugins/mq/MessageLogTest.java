@@ -0,0 +1,104 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MessageLogTest {
+
+    private static final byte[] BODY = "{\"key\":\"éèà value\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void test_none() {
+        Assertions.assertThat(console(new MessageLog(LogMode.NONE, BODY, 10))).isEmpty();
+    }
+
+    @Test
+    public void test_full() {
+        MessageLog log = new MessageLog(LogMode.FULL, BODY, 10);
+
+        Assertions.assertThat(console(log)).isEqualTo("{\"key\":\"éèà value\"}" + System.lineSeparator());
+        Assertions.assertThat(log.toString()).isEqualTo("{\"key\":\"éèà value\"}");
+    }
+
+    @Test
+    public void test_preview() {
+        // the 11th byte is the middle of 'è'
+        MessageLog log = new MessageLog(LogMode.PREVIEW, BODY, 11);
+
+        Assertions.assertThat(console(log)).isEqualTo("{\"key\":\"é... (12 more bytes)" + System.lineSeparator());
+        Assertions.assertThat(log.toString()).isEqualTo("{\"key\":\"é... (12 more bytes)");
+    }
+
+    @Test
+    public void test_preview_smaller_message() {
+        MessageLog log = new MessageLog(LogMode.PREVIEW, BODY, 1024);
+
+        Assertions.assertThat(log.toString()).isEqualTo("{\"key\":\"éèà value\"}");
+    }
+
+    @Test
+    public void test_hash() {
+        MessageLog log = new MessageLog(LogMode.HASH, "abc".getBytes(StandardCharsets.UTF_8), 10);
+
+        Assertions.assertThat(log.toString()).isEqualTo(
+                "sha256:ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad, 3 bytes");
+    }
+
+    @Test
+    public void test_json_string() {
+        byte[] body = "\"{\\\"key\\\":\\\"line 1\\nline 2 \\u00e9\\\"}\"".getBytes(StandardCharsets.UTF_8);
+
+        // call
+        MessageLog log = MessageLog.ofJsonString(LogMode.FULL, body, 10);
+
+        // assertions
+        Assertions.assertThat(log.toString()).isEqualTo("{\"key\":\"line 1\nline 2 \u00e9\"}");
+        Assertions.assertThat(MessageLog.ofJsonString(LogMode.HASH, body, 10).toString())
+                .isEqualTo(new MessageLog(LogMode.HASH, body, 10).toString());
+    }
+
+    @Test
+    public void test_json_string_preview() {
+        // 1.5 MB of text, escaped
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < 128 * 1024; i++) {
+            json.append("\\u00e9\\n\\\"ab");
+        }
+        byte[] body = json.append('"').toString().getBytes(StandardCharsets.UTF_8);
+
+        // call : the 'é' of the 3rd group would be cut
+        MessageLog log = MessageLog.ofJsonString(LogMode.PREVIEW, body, 13);
+
+        // assertions : unescaped only up to the preview
+        Assertions.assertThat(log.toString()).isEqualTo("é\n\"abé\n\"ab... (" + (body.length - 26) + " more bytes)");
+        Assertions.assertThat(console(log)).isEqualTo("é\n\"abé\n\"ab... (" + (body.length - 26) + " more bytes)"
+                + System.lineSeparator());
+    }
+
+    @Test
+    public void test_json_string_surrogates() {
+        byte[] body = "\"\\ud83d\\ude00 \\ud83d \\u12\"".getBytes(StandardCharsets.UTF_8);
+
+        // call & assertions : lone surrogate replaced, incomplete escape written as it is
+        Assertions.assertThat(MessageLog.ofJsonString(LogMode.FULL, body, 10).toString())
+                .isEqualTo("\ud83d\ude00 ? \\u12");
+    }
+
+    @Test
+    public void test_not_json_string() {
+        byte[] body = "not \\u quoted".getBytes(StandardCharsets.UTF_8);
+
+        Assertions.assertThat(MessageLog.ofJsonString(LogMode.FULL, body, 10).toString()).isEqualTo("not \\u quoted");
+    }
+
+    private static String console(MessageLog log) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintStream console = new PrintStream(bytes, true)) {
+            log.writeTo(console);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
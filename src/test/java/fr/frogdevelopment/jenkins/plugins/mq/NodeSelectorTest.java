@@ -0,0 +1,59 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Address;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class NodeSelectorTest {
+
+    private static final Address NODE_1 = new Address("node-1", 5672);
+    private static final Address NODE_2 = new Address("node-2", 5672);
+    private static final Address NODE_3 = new Address("node-3", 5672);
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private final NodeSelector nodeSelector = new NodeSelector(Arrays.asList(NODE_1, NODE_2, NODE_3), 30_000, clock::get);
+
+    @Test
+    public void test_lowest_latency_first() {
+        nodeSelector.succeeded(NODE_1, 30_000_000);
+        nodeSelector.succeeded(NODE_2, 10_000_000);
+        nodeSelector.succeeded(NODE_3, 20_000_000);
+
+        Assertions.assertThat(nodeSelector.ordered()).containsExactly(NODE_2, NODE_3, NODE_1);
+        Assertions.assertThat(nodeSelector.getLatencyMs(NODE_2)).isEqualTo(10);
+    }
+
+    @Test
+    public void test_not_measured_first() {
+        nodeSelector.succeeded(NODE_1, 30_000_000);
+
+        Assertions.assertThat(nodeSelector.ordered()).containsExactly(NODE_2, NODE_3, NODE_1);
+    }
+
+    @Test
+    public void test_failing_node_ejected_for_cooldown() {
+        nodeSelector.succeeded(NODE_1, 10_000_000);
+        nodeSelector.succeeded(NODE_2, 20_000_000);
+        nodeSelector.succeeded(NODE_3, 30_000_000);
+
+        nodeSelector.failed(NODE_1);
+        Assertions.assertThat(nodeSelector.ordered()).containsExactly(NODE_2, NODE_3, NODE_1);
+
+        // back after the cooldown
+        clock.addAndGet(30_001);
+        Assertions.assertThat(nodeSelector.ordered()).containsExactly(NODE_1, NODE_2, NODE_3);
+    }
+
+    @Test
+    public void test_all_nodes_ejected_still_tried() {
+        nodeSelector.failed(NODE_2);
+        clock.addAndGet(10);
+        nodeSelector.failed(NODE_1);
+        clock.addAndGet(10);
+        nodeSelector.failed(NODE_3);
+
+        Assertions.assertThat(nodeSelector.ordered()).containsExactly(NODE_2, NODE_1, NODE_3);
+    }
+}
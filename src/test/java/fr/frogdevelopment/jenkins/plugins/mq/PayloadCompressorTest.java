@@ -0,0 +1,111 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.io.IOUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PayloadCompressorTest {
+
+    @Test
+    public void test_gzip() throws IOException {
+        byte[] body = manifest(100_000);
+
+        // call
+        byte[] compressed = PayloadCompressor.compress(Compression.GZIP, body);
+
+        // assertions
+        Assertions.assertThat(compressed.length).isLessThan(body.length);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            Assertions.assertThat(IOUtils.toByteArray(in)).isEqualTo(body);
+        }
+    }
+
+    @Test
+    public void test_deflate() throws IOException {
+        byte[] body = manifest(100_000);
+
+        // call
+        byte[] compressed = PayloadCompressor.compress(Compression.DEFLATE, body);
+
+        // assertions
+        Assertions.assertThat(compressed.length).isLessThan(body.length);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            Assertions.assertThat(IOUtils.toByteArray(in)).isEqualTo(body);
+        }
+    }
+
+    @Test
+    public void test_reused_between_messages() throws IOException {
+        // bigger than the initial buffer, and not compressible
+        byte[] first = new byte[200_000];
+        new Random(42).nextBytes(first);
+        byte[] second = "second message".getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressedFirst = PayloadCompressor.compress(Compression.GZIP, first);
+        byte[] compressedSecond = PayloadCompressor.compress(Compression.GZIP, second);
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedFirst))) {
+            Assertions.assertThat(IOUtils.toByteArray(in)).isEqualTo(first);
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedSecond))) {
+            Assertions.assertThat(IOUtils.toByteArray(in)).isEqualTo(second);
+        }
+    }
+
+    @Test
+    public void test_pool_bounded() throws Exception {
+        byte[] body = manifest(10_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4 * PayloadCompressor.POOL_SIZE);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> PayloadCompressor.compress(Compression.DEFLATE, body)));
+            }
+
+            for (Future<byte[]> result : results) {
+                try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(result.get()))) {
+                    Assertions.assertThat(IOUtils.toByteArray(in)).isEqualTo(body);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the compressors beyond the pool were ended
+        Assertions.assertThat(PayloadCompressor.pooled()).isBetween(1, PayloadCompressor.POOL_SIZE);
+    }
+
+    @Test
+    public void test_none() {
+        byte[] body = manifest(10);
+
+        Assertions.assertThat(PayloadCompressor.compress(Compression.NONE, body)).isSameAs(body);
+    }
+
+    @Test
+    public void test_contentEncoding() {
+        Assertions.assertThat(Compression.GZIP.contentEncoding(null)).isEqualTo("gzip");
+        Assertions.assertThat(Compression.DEFLATE.contentEncoding("UTF-8")).isEqualTo("deflate:UTF-8");
+    }
+
+    private static byte[] manifest(int size) {
+        StringBuilder manifest = new StringBuilder(size);
+        int i = 0;
+        while (manifest.length() < size) {
+            manifest.append("artifact-").append(i++).append(".jar=sha256:0123456789abcdef\n");
+        }
+        return manifest.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PublishDedupCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    public void test_published_within_window() throws Exception {
+        PublishDedupCache cache = new PublishDedupCache(new File(folder.getRoot(), "dedup.log"), now::get);
+
+        // call
+        cache.published("rabbit-test", "job-1", 60_000);
+
+        // assertions
+        Assertions.assertThat(cache.isPublished("rabbit-test", "job-1")).isTrue();
+        Assertions.assertThat(cache.isPublished("rabbit-other", "job-1")).isFalse();
+        Assertions.assertThat(cache.isPublished("rabbit-test", "job-2")).isFalse();
+
+        now.addAndGet(60_000);
+        Assertions.assertThat(cache.isPublished("rabbit-test", "job-1")).isFalse();
+
+        cache.close();
+    }
+
+    @Test
+    public void test_tryReserve() throws Exception {
+        PublishDedupCache cache = new PublishDedupCache(new File(folder.getRoot(), "dedup.log"), now::get);
+
+        // call & assertions : a key being sent is not reserved again
+        Assertions.assertThat(cache.tryReserve("rabbit-test", "job-1")).isTrue();
+        Assertions.assertThat(cache.tryReserve("rabbit-test", "job-1")).isFalse();
+        Assertions.assertThat(cache.tryReserve("rabbit-other", "job-1")).isTrue();
+
+        // released after a failure
+        cache.release("rabbit-other", "job-1");
+        Assertions.assertThat(cache.tryReserve("rabbit-other", "job-1")).isTrue();
+
+        // kept once published, until the end of its window
+        cache.published("rabbit-test", "job-1", 60_000);
+        Assertions.assertThat(cache.tryReserve("rabbit-test", "job-1")).isFalse();
+        now.addAndGet(60_000);
+        Assertions.assertThat(cache.tryReserve("rabbit-test", "job-1")).isTrue();
+
+        cache.close();
+    }
+
+    @Test
+    public void test_reload_after_restart() throws Exception {
+        File file = new File(folder.getRoot(), "dedup.log");
+        PublishDedupCache cache = new PublishDedupCache(file, now::get);
+        cache.published("rabbit-test", "job-1", 60_000);
+        cache.published("rabbit-test", "job-2", 1_000);
+        cache.close();
+
+        now.addAndGet(10_000);
+
+        // call
+        PublishDedupCache reloaded = new PublishDedupCache(file, now::get);
+
+        // assertions : expired keys are not loaded
+        Assertions.assertThat(reloaded.size()).isEqualTo(1);
+        Assertions.assertThat(reloaded.isPublished("rabbit-test", "job-1")).isTrue();
+        Assertions.assertThat(reloaded.isPublished("rabbit-test", "job-2")).isFalse();
+
+        reloaded.close();
+    }
+
+    @Test
+    public void test_bounded() throws Exception {
+        PublishDedupCache cache = new PublishDedupCache(new File(folder.getRoot(), "dedup.log"), now::get);
+
+        // call
+        for (int i = 0; i <= PublishDedupCache.MAX_ENTRIES; i++) {
+            cache.published("rabbit-test", "job-" + i, 60_000);
+        }
+
+        // assertions : oldest key evicted
+        Assertions.assertThat(cache.size()).isEqualTo(PublishDedupCache.MAX_ENTRIES);
+        Assertions.assertThat(cache.isPublished("rabbit-test", "job-0")).isFalse();
+        Assertions.assertThat(cache.isPublished("rabbit-test", "job-" + PublishDedupCache.MAX_ENTRIES)).isTrue();
+
+        cache.close();
+    }
+}
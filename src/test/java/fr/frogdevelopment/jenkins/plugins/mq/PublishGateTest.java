@@ -0,0 +1,94 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PublishGateTest {
+
+    @Test
+    public void test_unlimited() throws InterruptedException {
+        PublishGate gate = new PublishGate("test", 0, 0, BlockedPolicy.WAIT, 1);
+
+        // call
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            gate.acquire(1, 1024, null);
+        }
+
+        // assertions
+        Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+    }
+
+    @Test
+    public void test_messages_rate() throws InterruptedException {
+        PublishGate gate = new PublishGate("test", 10, 0, BlockedPolicy.WAIT, 5);
+
+        // call : a burst of 10, then 5 more at 10 per second
+        long start = System.nanoTime();
+        for (int i = 0; i < 15; i++) {
+            gate.acquire(1, 0, null);
+        }
+
+        // assertions
+        Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isBetween(400L, 2000L);
+    }
+
+    @Test
+    public void test_rate_timeout() throws InterruptedException {
+        PublishGate gate = new PublishGate("test", 0, 1000, BlockedPolicy.WAIT, 1);
+        gate.acquire(1, 5000, null);
+
+        // call & assertions : the debt of the previous publish exceeds the timeout
+        Assertions.assertThatThrownBy(() -> gate.acquire(1, 1000, null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Rate limit of Rabbit-MQ config test exceeded");
+    }
+
+    @Test
+    public void test_blocked_fail() {
+        PublishGate gate = new PublishGate("test", 0, 0, BlockedPolicy.FAIL, 30);
+        gate.blocked("low on memory");
+
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> gate.acquire(1, 10, null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("low on memory");
+    }
+
+    @Test
+    public void test_blocked_wait() throws InterruptedException {
+        PublishGate gate = new PublishGate("test", 0, 0, BlockedPolicy.WAIT, 30);
+        gate.blocked("low on disk");
+
+        Thread unblocker = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            gate.unblocked();
+        });
+        unblocker.start();
+
+        // call
+        long start = System.nanoTime();
+        gate.acquire(1, 10, null);
+
+        // assertions
+        Assertions.assertThat(gate.isBlocked()).isFalse();
+        Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(150);
+        unblocker.join();
+    }
+
+    @Test
+    public void test_blocked_wait_timeout() {
+        PublishGate gate = new PublishGate("test", 0, 0, BlockedPolicy.WAIT, 1);
+        gate.blocked("low on disk");
+
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> gate.acquire(1, 10, null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("still blocking publishes");
+    }
+}
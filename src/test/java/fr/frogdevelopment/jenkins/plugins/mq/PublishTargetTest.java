@@ -0,0 +1,38 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PublishTargetTest {
+
+    @Test
+    public void test_parse_without_targets() {
+        // call
+        List<PublishTarget> targets = PublishTarget.parse("FD-exchange", "release.api", null);
+
+        // assertions
+        Assertions.assertThat(targets).containsExactly(new PublishTarget("FD-exchange", "release.api"));
+    }
+
+    @Test
+    public void test_parse_targets() {
+        // call
+        List<PublishTarget> targets = PublishTarget.parse("FD-exchange", "release.api",
+                "FD-releases  release.web\n\nFD-audit\nFD-exchange release.api\n");
+
+        // assertions : main target first, duplicates removed
+        Assertions.assertThat(targets).containsExactly(
+                new PublishTarget("FD-exchange", "release.api"),
+                new PublishTarget("FD-releases", "release.web"),
+                new PublishTarget("FD-audit", ""));
+    }
+
+    @Test
+    public void test_parse_incorrect_target() {
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> PublishTarget.parseTargets("FD/releases release.web"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Incorrect target, expected exchange routingKey : FD/releases release.web");
+    }
+}
@@ -1,30 +1,59 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
+import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.impl.nio.NioParams;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.Configs;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig.RabbitConfigDescriptor;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.Launcher;
 import hudson.model.*;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.Secret;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
-
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.CacheMode;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
 
 import static fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
 
@@ -85,6 +114,14 @@ public class RabbitMqBuilderTest {
         doCheckParameters = descriptor.doCheckParameters(null);
         Assertions.assertThat(doCheckParameters.kind).isEqualTo(FormValidation.Kind.ERROR);
 
+        // the body is not known by the controller when publishing from the agent
+        Assertions.assertThat(descriptor.doCheckIdempotencyKey("${JOB_NAME}-${PAYLOAD_HASH}", false).kind)
+                .isEqualTo(FormValidation.Kind.OK);
+        Assertions.assertThat(descriptor.doCheckIdempotencyKey("${JOB_NAME}-${PAYLOAD_HASH}", true).kind)
+                .isEqualTo(FormValidation.Kind.ERROR);
+        Assertions.assertThat(descriptor.doCheckIdempotencyKey("${JOB_NAME}-${BUILD_NUMBER}", true).kind)
+                .isEqualTo(FormValidation.Kind.OK);
+
         Assertions.assertThat(descriptor.getConfigs()).isEqualTo(configs);
         RabbitConfigDescriptor rabbitConfigDescriptor = RABBIT_CONFIG.getDescriptor();
 
@@ -131,6 +168,68 @@ public class RabbitMqBuilderTest {
                 "Finished: FAILURE");
     }
 
+    @Test
+    public void test_no_RabbitConfig() throws IOException, ExecutionException, InterruptedException {
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "exchange", "key=value");
+        rabbitMqBuilder.getDescriptor().setConfigs(null);
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Initialisation Rabbit-MQ",
+                "Error while sending to Rabbit-MQ : IllegalStateException: No Rabbit-MQ config defined, check the global configuration",
+                "Finished: FAILURE");
+        Assertions.assertThat(rabbitMqBuilder.getDescriptor().doFillRabbitNameItems()).isEmpty();
+    }
+
+    @Test
+    public void test_RabbitConfig_forAgent() throws IOException, ClassNotFoundException {
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest",
+                Secret.fromString("agent-password").getEncryptedValue(), false, "/");
+        rabbitConfig.setChannelStripes(4);
+
+        // call : as sent over the agent channel
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rabbitConfig.forAgent());
+        }
+        RabbitConfig agentConfig;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            agentConfig = (RabbitConfig) in.readObject();
+        }
+
+        // assertions : no encrypted value, which the agent could not decrypt
+        Assertions.assertThat(agentConfig.getPassword()).isNull();
+        Assertions.assertThat(agentConfig.getDecodedPassword()).isEqualTo("agent-password");
+        Assertions.assertThat(agentConfig.getChannelStripes()).isEqualTo(4);
+        Assertions.assertThat(agentConfig).isEqualTo(rabbitConfig);
+    }
+
+    @Test
+    public void test_RabbitConfig_index_follows_configs() {
+        RabbitMqDescriptor descriptor = jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class);
+
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+        descriptor.setConfigs(new Configs(rabbitConfigs));
+
+        Assertions.assertThat(descriptor.requireRabbitConfig("rabbit-test")).isSameAs(RABBIT_CONFIG);
+        Assertions.assertThat(descriptor.getRabbitConfig("rabbit-ko")).isNull();
+
+        descriptor.setConfigs(new Configs(new ArrayList<>()));
+
+        Assertions.assertThat(descriptor.getRabbitConfig("rabbit-test")).isNull();
+    }
+
     @Test
     public void test_with_build_parameter_to_json() throws IOException, ExecutionException, InterruptedException {
         RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
@@ -171,15 +270,17 @@ public class RabbitMqBuilderTest {
                 "Initialisation Rabbit-MQ",
                 "Building message",
                 "Sending message",
-                "Connection destroyed",
+                "Message sent",
                 "Finished: SUCCESS");
 
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
 
-        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
-        String value = captor.getValue();
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Message value = captor.getValue();
         Assertions.assertThat(value).isNotNull();
-        Assertions.assertThat(value).isEqualTo("{\"key1\":\"value_test\"}");
+        // escaped, as the JSON message converter would have
+        Assertions.assertThat(new String(value.getBody(), StandardCharsets.UTF_8)).isEqualTo("\"{\\\"key1\\\":\\\"value_test\\\"}\"");
+        Assertions.assertThat(value.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
     }
 
     @Test
@@ -219,14 +320,393 @@ public class RabbitMqBuilderTest {
                 "Initialisation Rabbit-MQ",
                 "Building message",
                 "Sending message",
-                "Connection destroyed",
+                "Message sent",
                 "Finished: SUCCESS");
 
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
-        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
-        String value = captor.getValue();
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Message value = captor.getValue();
         Assertions.assertThat(value).isNotNull();
-        Assertions.assertThat(value).isEqualTo("key_1=\"value_test\"");
+        Assertions.assertThat(new String(value.getBody(), StandardCharsets.UTF_8)).isEqualTo("\"key_1=\\\"value_test\\\"\"");
+    }
+
+    @Test
+    public void test_with_compression() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+        String data = StringUtils.repeat("compressed ", 1000);
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, data);
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.setCompression(Compression.GZIP);
+        rabbitMqBuilder.setCompressionThreshold(1024);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "1 message(s) compressed with GZIP : 11000 -> ",
+                "Message sent",
+                "Finished: SUCCESS");
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey),
+                message.capture());
+        Assertions.assertThat(message.getValue().getMessageProperties().getContentEncoding()).isEqualTo("gzip");
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(message.getValue().getBody()))) {
+            Assertions.assertThat(IOUtils.toString(in, StandardCharsets.UTF_8)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void test_with_file() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("target/report.json")
+                        .write("{\"job\":\"$JOB_NAME\",\"secret\":\"not logged\"}", "UTF-8");
+                return true;
+            }
+        });
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, null);
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.setFile("target/report.json");
+        rabbitMqBuilder.setFileSubstitution(true);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Reading file ",
+                "report.json : 41 bytes",
+                "Message sent",
+                "Finished: SUCCESS");
+        Assertions.assertThat(console).doesNotContain("not logged");
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey),
+                message.capture());
+        Assertions.assertThat(new String(message.getValue().getBody(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"job\":\"Unit_Test\",\"secret\":\"not logged\"}");
+    }
+
+    @Test
+    public void test_with_message_properties() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // BUILD PARAMETERS
+        List<ParameterValue> parameters = new ArrayList<>();
+        parameters.add(new StringParameterValue("TTL", "60000"));
+        parameters.add(new StringParameterValue("STATUS", "success"));
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "build ended");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT);
+        rabbitMqBuilder.setExpiration("${TTL}");
+        rabbitMqBuilder.setPriority(5);
+        rabbitMqBuilder.setContentType("text/plain");
+        rabbitMqBuilder.setMessageId("${JOB_NAME}-${BUILD_NUMBER}");
+        rabbitMqBuilder.setHeaders("source=jenkins\nstatus=$STATUS\n");
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        System.setProperty(ParametersAction.KEEP_UNDEFINED_PARAMETERS_SYSTEM_PROPERTY_NAME, "true");
+        FreeStyleBuild build = project.scheduleBuild2(0, new ParametersAction(parameters)).get();
+
+        // ASSERTIONS
+        jenkinsRule.assertBuildStatusSuccess(build);
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey),
+                message.capture());
+        MessageProperties properties = message.getValue().getMessageProperties();
+        Assertions.assertThat(properties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.NON_PERSISTENT);
+        Assertions.assertThat(properties.getExpiration()).isEqualTo("60000");
+        Assertions.assertThat(properties.getPriority()).isEqualTo(5);
+        Assertions.assertThat(properties.getContentType()).isEqualTo("text/plain");
+        Assertions.assertThat(properties.getMessageId()).isEqualTo("Unit_Test-1");
+        Assertions.assertThat(properties.getHeaders())
+                .containsEntry("source", "jenkins")
+                .containsEntry("status", "success");
+    }
+
+    @Test
+    public void test_data_compiledOncePerBuilder() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "compiled once ${BUILD_NUMBER}");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        long compilations = MessageTemplate.getCompilations();
+
+        // LAUNCH BUILDS
+        FreeStyleBuild build1 = project.scheduleBuild2(0).get();
+        FreeStyleBuild build2 = project.scheduleBuild2(0).get();
+
+        // ASSERTIONS
+        jenkinsRule.assertBuildStatusSuccess(build1);
+        jenkinsRule.assertBuildStatusSuccess(build2);
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate, Mockito.times(2))
+                .send(Mockito.eq(exchange), Mockito.eq(routingKey), message.capture());
+        Assertions.assertThat(message.getAllValues())
+                .extracting(m -> new String(m.getBody(), StandardCharsets.UTF_8))
+                .containsExactly("compiled once 1", "compiled once 2");
+        Assertions.assertThat(MessageTemplate.getCompilations() - compilations).isEqualTo(1);
+    }
+
+    @Test
+    public void test_RabbitMqDescriptor_doCheckHeaders() {
+        RabbitMqDescriptor descriptor = jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class);
+
+        Assertions.assertThat(descriptor.doCheckHeaders("source=jenkins\n\nstatus=$STATUS").kind)
+                .isEqualTo(FormValidation.Kind.OK);
+        Assertions.assertThat(descriptor.doCheckHeaders("=jenkins").kind).isEqualTo(FormValidation.Kind.ERROR);
+    }
+
+    @Test
+    public void test_with_confirm() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "confirmed");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConfirm(true);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // MOCK : broker acknowledges the message
+        Mockito.doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            correlationData.getFuture().set(new CorrelationData.Confirm(true, null));
+            return null;
+        }).when(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey),
+                Mockito.any(Message.class), Mockito.any(CorrelationData.class));
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Sending message",
+                "Message sent, waiting for confirm",
+                "Message confirmed",
+                "Finished: SUCCESS");
+    }
+
+    @Test
+    public void test_with_targets() throws IOException, ExecutionException, InterruptedException {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "FD-exchange", "released");
+        rabbitMqBuilder.setRoutingKey("release.api");
+        rabbitMqBuilder.setTargets("FD-releases release.web\nFD-audit");
+        rabbitMqBuilder.setConfirm(true);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // MOCK : operations are executed on the template itself, the audit exchange rejects the message
+        Mockito.doAnswer(invocation -> {
+            RabbitOperations.OperationsCallback<?> callback = invocation.getArgument(0);
+            return callback.doInRabbit(mockRabbitTemplate);
+        }).when(mockRabbitTemplate).invoke(Mockito.any(RabbitOperations.OperationsCallback.class));
+        Mockito.doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            boolean ack = !"FD-audit".equals(invocation.getArgument(0));
+            correlationData.getFuture().set(new CorrelationData.Confirm(ack, ack ? null : "no route"));
+            return null;
+        }).when(mockRabbitTemplate).send(Mockito.anyString(), Mockito.anyString(), Mockito.any(Message.class),
+                Mockito.any(CorrelationData.class));
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Sending message to 3 targets",
+                "Message confirmed for exchange FD-exchange, routing key release.api",
+                "Message confirmed for exchange FD-releases, routing key release.web",
+                "Message not confirmed for exchange FD-audit, routing key  : Message rejected by broker : no route",
+                "Error while sending to Rabbit-MQ : IllegalStateException: Message not confirmed for 1 of 3 targets, "
+                        + "exchange FD-audit, routing key  : Message rejected by broker : no route",
+                "Finished: FAILURE");
+
+        // the message is built once and sent to each target
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate).invoke(Mockito.any(RabbitOperations.OperationsCallback.class));
+        Mockito.verify(mockRabbitTemplate, Mockito.times(3)).send(Mockito.anyString(), Mockito.anyString(),
+                captor.capture(), Mockito.any(CorrelationData.class));
+        Assertions.assertThat(captor.getAllValues()).hasSize(3).allMatch(message -> message == captor.getValue());
+    }
+
+    @Test
+    public void test_with_idempotencyKey() throws IOException, ExecutionException, InterruptedException {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "FD-exchange", "released");
+        rabbitMqBuilder.setRoutingKey("release.api");
+        rabbitMqBuilder.setIdempotencyKey("${JOB_NAME}-${PAYLOAD_HASH}");
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILDS : the second build publishes the same message
+        FreeStyleBuild first = project.scheduleBuild2(0).get();
+        FreeStyleBuild second = project.scheduleBuild2(0).get();
+
+        // ASSERTIONS
+        String key = "Unit_Test-" + Utils.sha256("\"released\"".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThat(FileUtils.readFileToString(first.getLogFile())).containsSubsequence(
+                "Message sent",
+                "Finished: SUCCESS");
+        Assertions.assertThat(FileUtils.readFileToString(second.getLogFile())).containsSubsequence(
+                "Message " + key + " already published, not sent again",
+                "Finished: SUCCESS");
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate).send(Mockito.eq("FD-exchange"), Mockito.eq("release.api"), captor.capture());
+        Assertions.assertThat(captor.getValue().getMessageProperties().getMessageId()).isEqualTo(key);
+    }
+
+    @Test
+    public void test_with_batch() throws IOException, ExecutionException, InterruptedException {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "message_1\nmessage_2\n\nmessage_3");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setBatch(true);
+        rabbitMqBuilder.setBatchSize(2);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // MOCK : operations are executed on the template itself
+        Mockito.doAnswer(invocation -> {
+            RabbitOperations.OperationsCallback<?> callback = invocation.getArgument(0);
+            return callback.doInRabbit(mockRabbitTemplate);
+        }).when(mockRabbitTemplate).invoke(Mockito.any(RabbitOperations.OperationsCallback.class));
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Sending 3 messages",
+                "Batch 1 : 2 messages",
+                "Batch 2 : 1 messages",
+                "3 messages sent in 2 batches",
+                "Finished: SUCCESS");
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate, Mockito.times(3)).send(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Assertions.assertThat(captor.getAllValues())
+                .extracting(message -> new String(message.getBody(), StandardCharsets.UTF_8))
+                .containsExactly("\"message_1\"", "\"message_2\"", "\"message_3\"");
     }
 
     @Test
@@ -293,6 +773,32 @@ public class RabbitMqBuilderTest {
                 "Finished: FAILURE");
     }
 
+    @Test
+    public void test_pooled_connection_reused_until_config_changes() throws GeneralSecurityException {
+        RabbitMqConnections connections = new RabbitMqConnections();
+
+        // first use open the connection
+        RabbitMqFactory.mockRabbitTemplate = null;
+        RabbitTemplate first = connections.getRabbitTemplate(RABBIT_CONFIG);
+
+        // same config => same template
+        RabbitMqFactory.mockRabbitTemplate = null;
+        Assertions.assertThat(connections.getRabbitTemplate(RABBIT_CONFIG)).isSameAs(first);
+
+        // modified config => new template
+        RabbitConfig modified = new RabbitConfig("rabbit-test", "roger-rabbit", 5673, "guest", "guest", false, "/");
+        RabbitMqFactory.mockRabbitTemplate = null;
+        RabbitTemplate second = connections.getRabbitTemplate(modified);
+        Assertions.assertThat(second).isNotSameAs(first);
+
+        // removed config => new template on next use
+        connections.retain(new ArrayList<>());
+        RabbitMqFactory.mockRabbitTemplate = null;
+        Assertions.assertThat(connections.getRabbitTemplate(modified)).isNotSameAs(second);
+
+        connections.shutdown();
+    }
+
     @Test
     public void test_RabbitConfig_fromJSON() {
         // data
@@ -315,6 +821,154 @@ public class RabbitMqBuilderTest {
         Assertions.assertThat(rabbitConfig.getDecodedPassword()).isEqualTo(rabbitConfigJSON.getString("password"));
         Assertions.assertThat(rabbitConfig.getIsSecure()).isEqualTo(rabbitConfigJSON.getBoolean("isSecure"));
         Assertions.assertThat(rabbitConfig.getVirtualHost()).isEqualTo(rabbitConfigJSON.getString("virtualHost"));
+        Assertions.assertThat(rabbitConfig.getChannelCacheSize()).isEqualTo(RabbitConfig.DEFAULT_CHANNEL_CACHE_SIZE);
+        Assertions.assertThat(rabbitConfig.getChannelCheckoutTimeout()).isZero();
+        Assertions.assertThat(rabbitConfig.getCacheMode()).isEqualTo(CacheMode.CHANNEL);
+        Assertions.assertThat(rabbitConfig.getChannelStripes()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_RabbitConfig_fromJSON_channel_cache() {
+        // data
+        JSONObject rabbitConfigJSON = new JSONObject();
+        rabbitConfigJSON.put("name", "name_value");
+        rabbitConfigJSON.put("host", "host_value");
+        rabbitConfigJSON.put("port", 123);
+        rabbitConfigJSON.put("username", "username_value");
+        rabbitConfigJSON.put("password", "password_value");
+        rabbitConfigJSON.put("isSecure", false);
+        rabbitConfigJSON.put("virtualHost", "/test");
+        rabbitConfigJSON.put("channelCacheSize", 50);
+        rabbitConfigJSON.put("channelCheckoutTimeout", 2000);
+        rabbitConfigJSON.put("cacheMode", "CHANNEL");
+        rabbitConfigJSON.put("channelStripes", 4);
+
+        // call
+        RabbitConfig rabbitConfig = RabbitConfig.fromJSON(rabbitConfigJSON);
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        CachingConnectionFactory factory = RabbitMqConnections.configure(
+                new CachingConnectionFactory(connectionFactory), rabbitConfig);
+
+        // assertions
+        Assertions.assertThat(rabbitConfig.getChannelStripes()).isEqualTo(4);
+        Assertions.assertThat(factory.getChannelCacheSize()).isEqualTo(50);
+        Assertions.assertThat(factory.getCacheMode()).isEqualTo(CacheMode.CHANNEL);
+        Assertions.assertThat(factory.isPublisherConfirms()).isTrue();
+
+        // a write blocked by the broker fails after the publish timeout
+        ArgumentCaptor<NioParams> nioParams = ArgumentCaptor.forClass(NioParams.class);
+        Mockito.verify(connectionFactory).useNio();
+        Mockito.verify(connectionFactory).setNioParams(nioParams.capture());
+        Assertions.assertThat(nioParams.getValue().getWriteEnqueuingTimeoutInMs())
+                .isEqualTo(rabbitConfig.getPublishTimeout() * 1000);
+
+        RabbitConfig other = RabbitConfig.fromJSON(rabbitConfigJSON);
+        other.setChannelStripes(2);
+        Assertions.assertThat(other).isNotEqualTo(rabbitConfig);
+
+        factory.destroy();
+    }
+
+    @Test
+    @WithoutJenkins
+    public void test_channel_stripe_is_thread_affine() throws InterruptedException {
+        int stripe = RabbitMqConnections.stripe(4);
+        Assertions.assertThat(stripe).isBetween(0, 3);
+        Assertions.assertThat(RabbitMqConnections.stripe(4)).isEqualTo(stripe);
+        Assertions.assertThat(RabbitMqConnections.stripe(1)).isZero();
+
+        // other threads get their own stripe, within range
+        int[] other = new int[1];
+        Thread thread = new Thread(() -> other[0] = RabbitMqConnections.stripe(4));
+        thread.start();
+        thread.join();
+        Assertions.assertThat(other[0]).isBetween(0, 3);
+        Assertions.assertThat(other[0]).isEqualTo((int) (thread.getId() % 4));
+    }
+
+    @Test
+    @WithoutJenkins
+    public void test_concurrent_publishes_across_stripes() throws Exception {
+        int stripes = 4;
+        int threadsPerStripe = 2;
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit-stripes", "roger-rabbit", 5672, "guest", "guest", false,
+                "/");
+        rabbitConfig.setChannelStripes(stripes);
+        // a single channel per stripe : a checkout waits until the channel of its stripe is returned
+        rabbitConfig.setChannelCacheSize(1);
+        rabbitConfig.setChannelCheckoutTimeout(5000);
+
+        // MOCK : a publish waits for one publish on each stripe at the same time
+        CyclicBarrier allStripes = new CyclicBarrier(stripes);
+        List<Connection> connectionsOpened = Collections.synchronizedList(new ArrayList<>());
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        Mockito.doAnswer(invocation -> {
+            Connection connection = Mockito.mock(Connection.class);
+            Mockito.doReturn(true).when(connection).isOpen();
+            Mockito.doAnswer(create -> {
+                Channel channel = Mockito.mock(Channel.class);
+                Mockito.doReturn(true).when(channel).isOpen();
+                Mockito.doAnswer(publish -> allStripes.await(5, TimeUnit.SECONDS)).when(channel)
+                        .basicPublish(Mockito.any(), Mockito.any(), Mockito.anyBoolean(), Mockito.any(),
+                                Mockito.any());
+                return channel;
+            }).when(connection).createChannel();
+            connectionsOpened.add(connection);
+            return connection;
+        }).when(connectionFactory).newConnection(Mockito.nullable(ExecutorService.class),
+                Mockito.nullable(String.class));
+
+        ConnectionFactory previousConnectionFactory = RabbitMqFactory.mockConnectionFactory;
+        RabbitMqFactory.mockConnectionFactory = connectionFactory;
+        RabbitMqFactory.realRabbitTemplate = true;
+        RabbitMqConnections connections = new RabbitMqConnections();
+        try {
+            // publishing threads, as many on each stripe, the stripe of a thread being its id modulo the stripes
+            List<Thread> threads = new ArrayList<>();
+            int[] perStripe = new int[stripes];
+            Set<CachingConnectionFactory> factoriesUsed = ConcurrentHashMap.newKeySet();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Message message = new Message("value_test".getBytes(StandardCharsets.UTF_8), new MessageProperties());
+            while (threads.size() < stripes * threadsPerStripe) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        RabbitTemplate rabbitTemplate = connections.getRabbitTemplate(rabbitConfig);
+                        factoriesUsed.add((CachingConnectionFactory) rabbitTemplate.getConnectionFactory());
+                        rabbitTemplate.send("FD-exchange", "frogdevelopment.test", message);
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                });
+                int stripe = (int) (thread.getId() % stripes);
+                if (perStripe[stripe] < threadsPerStripe) {
+                    perStripe[stripe]++;
+                    threads.add(thread);
+                }
+            }
+
+            // call
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            }
+
+            // assertions : every stripe has its own factory and connection, and its channel is checked out while
+            // the other stripes publish
+            Assertions.assertThat(failures).isEmpty();
+            Assertions.assertThat(factoriesUsed).hasSize(stripes);
+            Assertions.assertThat(connectionsOpened).hasSize(stripes);
+            Assertions.assertThat(allStripes.isBroken()).isFalse();
+            for (Connection connection : connectionsOpened) {
+                // the channel of the stripe is reused by its threads
+                Mockito.verify(connection).createChannel();
+            }
+        } finally {
+            connections.shutdown();
+            RabbitMqFactory.realRabbitTemplate = false;
+            RabbitMqFactory.mockConnectionFactory = previousConnectionFactory;
+        }
     }
 
     @Test
@@ -446,7 +1100,7 @@ public class RabbitMqBuilderTest {
         Mockito.doReturn(true).when(connection).isOpen();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure,virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure, virtualHost, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.OK);
@@ -480,7 +1134,7 @@ public class RabbitMqBuilderTest {
         Mockito.doReturn(false).when(connection).isOpen();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure, virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure, virtualHost, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.ERROR);
@@ -514,11 +1168,85 @@ public class RabbitMqBuilderTest {
         Mockito.doThrow(exception_for_text).when(mockConnectionFactory).newConnection();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure,virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure, virtualHost, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.ERROR);
         Assertions.assertThat(formValidation.getMessage()).isEqualTo("Client error : " + exception_for_text.getMessage());
     }
 
+    @Test
+    public void test_RabbitConfigDescriptor_doTestConnection_addresses() throws IOException, TimeoutException, GeneralSecurityException {
+        // data
+        RabbitConfigDescriptor rabbitConfigDescriptor = new RabbitConfigDescriptor();
+
+        // create mock
+        ConnectionFactory mockConnectionFactory = RabbitMqFactory.createConnectionFactory(
+                "username",
+                "password",
+                "host",
+                5672,
+                false,
+                "/test"
+        );
+        Connection connection = Mockito.mock(Connection.class);
+
+        // mock
+        Mockito.doReturn(connection).when(mockConnectionFactory).newConnection();
+        Mockito.doReturn(true).when(connection).isOpen();
+
+        // call
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection("host", "5672", "username", "password",
+                "false", "/test", "node-1:5673, node-2", null);
+
+        // assertions
+        Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.OK);
+        Assertions.assertThat(formValidation.renderHtml()).containsSubsequence(
+                "node-1:5673 : connected in ", " ms<br>",
+                "node-2:5672 : connected in ", " ms");
+    }
+
+    @Test
+    @WithoutJenkins
+    public void test_buildMessage_binary() {
+        byte[] bytes = {0, 1, 2, (byte) 0xC3, (byte) 0x28, (byte) 0xFF};
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "exchange", "$PAYLOAD");
+        rabbitMqBuilder.setPayloadType(PayloadType.BINARY);
+
+        // call
+        Message message = rabbitMqBuilder.buildMessage(
+                Collections.singletonMap("PAYLOAD", Base64.getEncoder().encodeToString(bytes)), "$PAYLOAD");
+
+        // assertions : the bytes are not encoded, even when not valid UTF-8
+        Assertions.assertThat(message.getBody()).isEqualTo(bytes);
+        Assertions.assertThat(message.getMessageProperties().getContentType())
+                .isEqualTo(MessageProperties.CONTENT_TYPE_BYTES);
+        Assertions.assertThat(message.getMessageProperties().getContentEncoding()).isNull();
+        Assertions.assertThat(rabbitMqBuilder.getConversion()).isFalse();
+    }
+
+    @Test
+    @WithoutJenkins
+    public void test_buildMessage_binary_not_base64() {
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "exchange", "not base64 !");
+        rabbitMqBuilder.setPayloadType(PayloadType.BINARY);
+
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> rabbitMqBuilder.buildMessage(Collections.emptyMap(), "not base64 !"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Incorrect binary data, expected base64");
+    }
+
+    @Test
+    @WithoutJenkins
+    public void test_setConversion() {
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "exchange", "data");
+
+        // call & assertions
+        Assertions.assertThat(rabbitMqBuilder.getPayloadType()).isEqualTo(PayloadType.ESCAPED_STRING);
+        rabbitMqBuilder.setConversion(false);
+        Assertions.assertThat(rabbitMqBuilder.getPayloadType()).isEqualTo(PayloadType.TEXT);
+        rabbitMqBuilder.setConversion(true);
+        Assertions.assertThat(rabbitMqBuilder.getPayloadType()).isEqualTo(PayloadType.ESCAPED_STRING);
+    }
 }
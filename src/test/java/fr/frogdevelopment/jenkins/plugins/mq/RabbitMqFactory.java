@@ -1,7 +1,10 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
+import com.rabbitmq.client.Address;
 import com.rabbitmq.client.ConnectionFactory;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +17,7 @@ class RabbitMqFactory {
 
     static ConnectionFactory mockConnectionFactory; // keep it, for test use
     static RabbitTemplate mockRabbitTemplate;
+    static boolean realRabbitTemplate; // keep it, for test use : a template on the given factory, instead of the mock
 
     static ConnectionFactory createConnectionFactory(String username, String password, String host, int port,
                                                      boolean isSecure,String virtualHost) throws GeneralSecurityException {
@@ -27,7 +31,19 @@ class RabbitMqFactory {
         return mockConnectionFactory;
     }
 
+    static ConnectionFactory createConnectionFactory(String username, String password, String host, int port,
+                                                     boolean isSecure, String virtualHost, String addresses) throws GeneralSecurityException {
+        return createConnectionFactory(username, password, host, port, isSecure, virtualHost);
+    }
+
+    static List<Address> parseAddresses(String addresses) {
+        return Arrays.asList(Address.parseAddresses(addresses.trim().replaceAll("\\s*,\\s*", ",")));
+    }
+
     static RabbitTemplate getRabbitTemplate(CachingConnectionFactory factory) {
+        if (realRabbitTemplate) {
+            return new RabbitTemplate(factory);
+        }
         if (mockRabbitTemplate == null) {
             LOGGER.info("Mocking RabbitTemplate");
             mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
@@ -0,0 +1,220 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class RabbitMqOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RabbitTemplate mockRabbitTemplate;
+
+    @Before
+    public void setUp() {
+        mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+
+        // MOCK : operations are executed on the template itself
+        Mockito.doAnswer(invocation -> {
+            RabbitOperations.OperationsCallback<?> callback = invocation.getArgument(0);
+            return callback.doInRabbit(mockRabbitTemplate);
+        }).when(mockRabbitTemplate).invoke(Mockito.any(RabbitOperations.OperationsCallback.class));
+
+        // MOCK : broker acknowledges every message
+        Mockito.doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            correlationData.getFuture().set(new CorrelationData.Confirm(true, null));
+            return null;
+        }).when(mockRabbitTemplate).send(Mockito.anyString(), Mockito.anyString(), Mockito.any(Message.class),
+                Mockito.any(CorrelationData.class));
+    }
+
+    @Test
+    public void test_append_then_drain() throws Exception {
+        RabbitMqOutbox outbox = new RabbitMqOutbox(folder.getRoot(), rabbitName -> mockRabbitTemplate);
+
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_1"));
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_2"));
+
+        // call
+        int sent = outbox.drain();
+
+        // assertions
+        Assertions.assertThat(sent).isEqualTo(2);
+        Assertions.assertThat(sentBodies()).containsExactly("message_1", "message_2");
+
+        Assertions.assertThat(outbox.drain()).isEqualTo(0);
+
+        outbox.stop();
+    }
+
+    @Test
+    public void test_drain_resumes_after_restart() throws Exception {
+        RabbitMqOutbox outbox = new RabbitMqOutbox(folder.getRoot(), rabbitName -> mockRabbitTemplate);
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_1"));
+        outbox.drain();
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_2"));
+        outbox.stop();
+
+        // call
+        RabbitMqOutbox reopened = new RabbitMqOutbox(folder.getRoot(), rabbitName -> mockRabbitTemplate);
+        int sent = reopened.drain();
+
+        // assertions
+        Assertions.assertThat(sent).isEqualTo(1);
+        Assertions.assertThat(sentBodies()).containsExactly("message_1", "message_2");
+
+        reopened.stop();
+    }
+
+    @Test
+    public void test_drain_waits_for_gate() throws Exception {
+        // the broker blocks the publishes of the config
+        PublishGate gate = new PublishGate("rabbit-test", 0, 0, BlockedPolicy.FAIL, 1);
+        gate.blocked("low on memory");
+        RabbitMqOutbox outbox = new RabbitMqOutbox(folder.getRoot(), new RabbitMqOutbox.Templates() {
+            @Override
+            public RabbitTemplate get(String rabbitName) {
+                return mockRabbitTemplate;
+            }
+
+            @Override
+            public PublishGate gate(String rabbitName) {
+                return gate;
+            }
+        });
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_1"));
+
+        // call
+        for (int i = 0; i <= RabbitMqOutbox.MAX_ATTEMPTS; i++) {
+            Assertions.assertThatThrownBy(outbox::drain).isInstanceOf(TimeoutException.class)
+                    .hasMessageContaining("low on memory");
+        }
+        Mockito.verify(mockRabbitTemplate, Mockito.never()).invoke(Mockito.any());
+
+        // assertions : the message is kept until the broker unblocks
+        gate.unblocked();
+        Assertions.assertThat(outbox.drain()).isEqualTo(1);
+        Assertions.assertThat(sentBodies()).containsExactly("message_1");
+        try (Stream<Path> files = Files.walk(folder.getRoot().toPath())) {
+            Assertions.assertThat(files.map(Path::getFileName).map(Path::toString))
+                    .doesNotContain(RabbitMqOutbox.DEAD_LETTER);
+        }
+
+        outbox.stop();
+    }
+
+    @Test
+    public void test_encode_decode() throws Exception {
+        Message message = message("value_test");
+        message.getMessageProperties().setHeader("header", "value");
+
+        // call
+        RabbitMqOutbox.Entry entry = RabbitMqOutbox.decode(
+                RabbitMqOutbox.encode("rabbit-test", "FD-exchange", null, message));
+
+        // assertions
+        Assertions.assertThat(entry.rabbitName).isEqualTo("rabbit-test");
+        Assertions.assertThat(entry.exchange).isEqualTo("FD-exchange");
+        Assertions.assertThat(entry.routingKey).isNull();
+        Assertions.assertThat(entry.message.getBody()).isEqualTo(message.getBody());
+        Assertions.assertThat(entry.message.getMessageProperties().getMessageId()).isEqualTo("id-value_test");
+        Assertions.assertThat(entry.message.getMessageProperties().getContentType())
+                .isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        Assertions.assertThat((String) entry.message.getMessageProperties().getHeader("header")).isEqualTo("value");
+    }
+
+    @Test
+    public void test_poison_message_moved_to_dead_letter() throws Exception {
+        // MOCK : broker rejects the poison message only
+        Mockito.doAnswer(invocation -> {
+            Message message = invocation.getArgument(2);
+            CorrelationData correlationData = invocation.getArgument(3);
+            boolean poison = "poison".equals(new String(message.getBody(), StandardCharsets.UTF_8));
+            correlationData.getFuture().set(new CorrelationData.Confirm(!poison, poison ? "rejected" : null));
+            return null;
+        }).when(mockRabbitTemplate).send(Mockito.anyString(), Mockito.anyString(), Mockito.any(Message.class),
+                Mockito.any(CorrelationData.class));
+
+        RabbitMqOutbox outbox = new RabbitMqOutbox(folder.getRoot(), rabbitName -> mockRabbitTemplate);
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_1"));
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("poison"));
+        outbox.append("rabbit-test", "FD-exchange", "frogdevelopment.test", message("message_2"));
+        outbox.append("rabbit-other", "FD-exchange", "frogdevelopment.test", message("other_1"));
+
+        // call
+        for (int i = 1; i < RabbitMqOutbox.MAX_ATTEMPTS; i++) {
+            Assertions.assertThatThrownBy(outbox::drain).hasMessageContaining("rejected");
+        }
+        int sent = outbox.drain();
+
+        // assertions
+        Assertions.assertThat(sent).isEqualTo(1);
+        // the other config is not held back by the poison message
+        Assertions.assertThat(sentBodies()).containsSubsequence("message_1", "other_1", "message_2");
+        Assertions.assertThat(sentBodies()).filteredOn("poison"::equals).hasSize(RabbitMqOutbox.MAX_ATTEMPTS);
+        Assertions.assertThat(outbox.drain()).isEqualTo(0);
+        try (Stream<Path> files = Files.walk(folder.getRoot().toPath())) {
+            Assertions.assertThat(files.map(Path::getFileName).map(Path::toString))
+                    .containsOnlyOnce(RabbitMqOutbox.DEAD_LETTER);
+        }
+
+        outbox.stop();
+    }
+
+    @Test
+    public void test_encode_decode_typed_headers() throws Exception {
+        Message message = message("value_test");
+        message.getMessageProperties().setHeader("count", 3);
+        message.getMessageProperties().setHeader("size", 4L);
+        message.getMessageProperties().setHeader("retry", true);
+        message.getMessageProperties().setHeader("ratio", 0.5);
+        message.getMessageProperties().setHeader("empty", null);
+
+        // call
+        RabbitMqOutbox.Entry entry = RabbitMqOutbox.decode(
+                RabbitMqOutbox.encode("rabbit-test", "FD-exchange", null, message));
+
+        // assertions
+        Assertions.assertThat(entry.message.getMessageProperties().getHeaders())
+                .containsEntry("count", 3)
+                .containsEntry("size", 4L)
+                .containsEntry("retry", true)
+                .containsEntry("ratio", 0.5)
+                .containsEntry("empty", null);
+    }
+
+    private static Message message(String body) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setMessageId("id-" + body);
+        return new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    private String[] sentBodies() {
+        ArgumentCaptor<Message> messages = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate, Mockito.atLeastOnce()).send(Mockito.eq("FD-exchange"),
+                Mockito.eq("frogdevelopment.test"), messages.capture(), Mockito.any(CorrelationData.class));
+
+        List<Message> values = messages.getAllValues();
+        return values.stream()
+                .map(message -> new String(message.getBody(), StandardCharsets.UTF_8))
+                .toArray(String[]::new);
+    }
+}
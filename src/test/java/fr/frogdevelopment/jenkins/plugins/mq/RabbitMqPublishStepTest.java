@@ -0,0 +1,213 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.Configs;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.assertj.core.api.Assertions;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class RabbitMqPublishStepTest {
+
+    private static final RabbitConfig RABBIT_CONFIG = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest", "guest", false, "/");
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void test_publish_with_confirm() throws Exception {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class).setConfigs(new Configs(rabbitConfigs));
+
+        RabbitMqPublishStep step = new RabbitMqPublishStep("rabbit-test", "FD-exchange", "${VALUE}");
+        step.setRoutingKey("frogdevelopment.test");
+        step.setConversion(false);
+        step.setConfirm(true);
+
+        // CONTEXT
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        EnvVars env = new EnvVars();
+        env.put("VALUE", "value_test");
+        StepContext context = Mockito.mock(StepContext.class);
+        Mockito.doReturn(new StreamTaskListener(console)).when(context).get(TaskListener.class);
+        Mockito.doReturn(env).when(context).get(EnvVars.class);
+
+        // MOCK : broker acknowledges the message
+        Mockito.doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            correlationData.getFuture().set(new CorrelationData.Confirm(true, null));
+            return null;
+        }).when(mockRabbitTemplate).send(Mockito.eq("FD-exchange"), Mockito.eq("frogdevelopment.test"),
+                Mockito.any(Message.class), Mockito.any(CorrelationData.class));
+
+        // call
+        StepExecution execution = step.start(context);
+        boolean synchronous = execution.start();
+
+        // assertions
+        Assertions.assertThat(synchronous).isFalse();
+
+        ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(context, Mockito.timeout(5000)).onSuccess(result.capture());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>) result.getValue();
+        Assertions.assertThat(values.get("messageId")).isNotNull();
+        Assertions.assertThat(values.get("confirmed")).isEqualTo(true);
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(mockRabbitTemplate).send(Mockito.eq("FD-exchange"), Mockito.eq("frogdevelopment.test"),
+                message.capture(), Mockito.any(CorrelationData.class));
+        Assertions.assertThat(new String(message.getValue().getBody(), StandardCharsets.UTF_8)).isEqualTo("value_test");
+        Assertions.assertThat(message.getValue().getMessageProperties().getMessageId()).isEqualTo(values.get("messageId"));
+    }
+
+    @Test
+    public void test_publish_completed_by_confirm() throws Exception {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class).setConfigs(new Configs(rabbitConfigs));
+
+        RabbitMqPublishStep step = new RabbitMqPublishStep("rabbit-test", "FD-exchange", "value_test");
+        step.setRoutingKey("frogdevelopment.test");
+        step.setConversion(false);
+        step.setConfirm(true);
+
+        // CONTEXT
+        StepContext context = Mockito.mock(StepContext.class);
+        Mockito.doReturn(new StreamTaskListener(new ByteArrayOutputStream())).when(context).get(TaskListener.class);
+        Mockito.doReturn(new EnvVars()).when(context).get(EnvVars.class);
+
+        // call : the broker does not confirm the message yet
+        step.start(context).start();
+
+        ArgumentCaptor<CorrelationData> correlationData = ArgumentCaptor.forClass(CorrelationData.class);
+        Mockito.verify(mockRabbitTemplate, Mockito.timeout(5000)).send(Mockito.eq("FD-exchange"),
+                Mockito.eq("frogdevelopment.test"), Mockito.any(Message.class), correlationData.capture());
+        Mockito.verify(context, Mockito.after(500).never()).onSuccess(Mockito.any());
+
+        // the confirm completes the step
+        correlationData.getValue().getFuture().set(new CorrelationData.Confirm(true, null));
+
+        // assertions
+        ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(context, Mockito.timeout(5000)).onSuccess(result.capture());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>) result.getValue();
+        Assertions.assertThat(values.get("confirmed")).isEqualTo(true);
+    }
+
+    @Test
+    public void test_publish_targets_confirmed() throws Exception {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class).setConfigs(new Configs(rabbitConfigs));
+
+        RabbitMqPublishStep step = new RabbitMqPublishStep("rabbit-test", "FD-exchange", "value_test");
+        step.setRoutingKey("frogdevelopment.test");
+        step.setTargets("FD-audit");
+        step.setConversion(false);
+        step.setConfirm(true);
+
+        // CONTEXT
+        StepContext context = Mockito.mock(StepContext.class);
+        Mockito.doReturn(new StreamTaskListener(new ByteArrayOutputStream())).when(context).get(TaskListener.class);
+        Mockito.doReturn(new EnvVars()).when(context).get(EnvVars.class);
+
+        // call : only the main target confirms the message
+        step.start(context).start();
+
+        ArgumentCaptor<CorrelationData> correlationData = ArgumentCaptor.forClass(CorrelationData.class);
+        Mockito.verify(mockRabbitTemplate, Mockito.timeout(5000).times(2)).send(Mockito.anyString(),
+                Mockito.anyString(), Mockito.any(Message.class), correlationData.capture());
+        correlationData.getAllValues().get(0).getFuture().set(new CorrelationData.Confirm(true, null));
+        Mockito.verify(context, Mockito.after(500).never()).onSuccess(Mockito.any());
+
+        // the confirm of the other target completes the step
+        correlationData.getAllValues().get(1).getFuture().set(new CorrelationData.Confirm(true, null));
+
+        // assertions
+        ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(context, Mockito.timeout(5000)).onSuccess(result.capture());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>) result.getValue();
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> targets = (List<Map<String, Object>>) values.get("targets");
+        Assertions.assertThat(targets).hasSize(2);
+        Assertions.assertThat(targets.get(0)).containsEntry("exchange", "FD-exchange").containsEntry("confirmed", true);
+        Assertions.assertThat(targets.get(1)).containsEntry("exchange", "FD-audit").containsEntry("confirmed", true);
+        Assertions.assertThat((Long) targets.get(1).get("latency")).isGreaterThanOrEqualTo((Long) targets.get(0).get("latency"));
+    }
+
+    @Test
+    public void test_publish_batch() throws Exception {
+        RabbitTemplate mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        RabbitMqFactory.mockRabbitTemplate = mockRabbitTemplate;
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqDescriptor.class).setConfigs(new Configs(rabbitConfigs));
+
+        RabbitMqPublishStep step = new RabbitMqPublishStep("rabbit-test", "FD-exchange", "${VALUE}-1\n${VALUE}-2");
+        step.setRoutingKey("frogdevelopment.test");
+        step.setConversion(false);
+        step.setBatch(true);
+
+        // CONTEXT
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        EnvVars env = new EnvVars();
+        env.put("VALUE", "value_test");
+        StepContext context = Mockito.mock(StepContext.class);
+        Mockito.doReturn(new StreamTaskListener(console)).when(context).get(TaskListener.class);
+        Mockito.doReturn(env).when(context).get(EnvVars.class);
+
+        // call
+        step.start(context).start();
+
+        // assertions
+        ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(context, Mockito.timeout(5000)).onSuccess(result.capture());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>) result.getValue();
+        Assertions.assertThat(values.get("messages")).isEqualTo(2);
+        Assertions.assertThat(values.get("confirmed")).isEqualTo(false);
+
+        // both messages are sent on the same channel, as by the build step
+        Mockito.verify(mockRabbitTemplate).invoke(Mockito.any());
+        Assertions.assertThat(new String(console.toByteArray(), StandardCharsets.UTF_8))
+                .contains("Batch 1 : 2 messages");
+    }
+}
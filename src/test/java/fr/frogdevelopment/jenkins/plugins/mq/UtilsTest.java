@@ -3,6 +3,7 @@ package fr.frogdevelopment.jenkins.plugins.mq;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -90,4 +91,41 @@ public class UtilsTest {
         Assertions.assertThat(jsonMessage).isEqualTo("{\"field1\":\"test\",\"field2\":\"VALUE_1\",\"field3\":\"value_2\",\"fieldEmpty\":\"\",\"fieldNull\":null}");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_getRawMessage_withSpecialCharactersInValue() {
+        // data
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("PRICE", "$10");
+        buildParameters.put("PATH", "C:\\temp\\$1");
+
+        // call
+        String rawMessage = Utils.getRawMessage(buildParameters, "price=${PRICE}, path=$PATH, unknown=${UNKNOWN}, ${, $");
+
+        // assertions
+        Assertions.assertThat(rawMessage).isEqualTo("price=$10, path=C:\\temp\\$1, unknown=${UNKNOWN}, ${, $");
+    }
+
+    @Test
+    public void test_MessageTemplate_compiledOnce() {
+        // call
+        MessageTemplate template = MessageTemplate.compile("${A}-$B-${A}");
+
+        // assertions
+        Assertions.assertThat(MessageTemplate.compile("${A}-$B-${A}")).isSameAs(template);
+        Assertions.assertThat(template.getVariables()).containsExactly("A", "B");
+    }
+
+    @Test
+    public void test_getJsonPayload_quoted() {
+        // data
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("PARAM_1", "line 1\nline \"2\"");
+
+        // call
+        byte[] payload = Utils.getJsonPayload(buildParameters, "field_1=${PARAM_1}\nfield_2=\u00e9t\u00e9", true);
+
+        // assertions
+        Assertions.assertThat(new String(payload, StandardCharsets.UTF_8))
+                .isEqualTo("\"{\\\"field1\\\":\\\"line 1\\\\nline \\\\\\\"2\\\\\\\"\\\",\\\"field2\\\":\\\"\u00e9t\u00e9\\\"}\"");
+    }
+}